@@ -0,0 +1,406 @@
+package com.test.IOHandler;
+
+import com.github.luben.zstd.ZstdInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the posts of many aliases from an archive as a stream, without
+ * unpacking it to disk or holding more than one post in memory. Supported
+ * archives, optionally gzip or Zstandard compressed:
+ *
+ * - tar archives with one user file per alias, in the same format as the files
+ * read by IOReadWrite (the alias ID is the file name without extension)
+ * - JSONL files with one post per line, e.g.
+ * {"alias": "Dulney1", "time": "2014-03-01T13:45:00", "post": "..."}
+ * ("user"/"text"/"timestamp" are accepted as alternative field names)
+ *
+ * Blank posts are skipped, since no features can be extracted from them.
+ *
+ * Zstandard is decoded as a stream with zstd-jni.
+ *
+ * @author ITE
+ */
+public class ArchiveReader {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final String TIME_PATTERN = "[0-9]{2}:[0-9]{2}:[0-9]{2}";
+
+    /**
+     * Read all posts in an archive file
+     *
+     * @param archive
+     * @param handler
+     * @throws IOException
+     */
+    public void read(File archive, PostRecordHandler handler) throws IOException {
+        try (InputStream in = new FileInputStream(archive)) {
+            read(in, handler);
+        }
+    }
+
+    /**
+     * Read all posts from an archive stream, detecting compression and format
+     * from the content
+     *
+     * @param in
+     * @param handler
+     * @throws IOException
+     */
+    public void read(InputStream in, PostRecordHandler handler) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        byte[] magic = peek(buffered, 4);
+        if (magic.length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            buffered = new BufferedInputStream(new GZIPInputStream(buffered, 1 << 16), 1 << 16);
+        } else if (magic.length == 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+                && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+            buffered = new BufferedInputStream(new ZstdInputStream(buffered), 1 << 16);
+        }
+        byte[] header = peek(buffered, BLOCK_SIZE);
+        if (header.length == BLOCK_SIZE && new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            readTar(buffered, handler);
+        } else {
+            readJsonLines(buffered, handler);
+        }
+    }
+
+    private static byte[] peek(BufferedInputStream in, int length) throws IOException {
+        in.mark(length);
+        byte[] bytes = new byte[length];
+        int read = 0;
+        int n;
+        while (read < length && (n = in.read(bytes, read, length - read)) > 0) {
+            read += n;
+        }
+        in.reset();
+        if (read < length) {
+            byte[] shorter = new byte[read];
+            System.arraycopy(bytes, 0, shorter, 0, read);
+            return shorter;
+        }
+        return bytes;
+    }
+
+    private void readTar(InputStream in, PostRecordHandler handler) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        while (true) {
+            readFully(in, header);
+            if (header[0] == 0) {
+                return;	// End of archive
+            }
+            String name = longName != null ? longName : headerString(header, 345, 155).isEmpty()
+                    ? headerString(header, 0, 100) : headerString(header, 345, 155) + "/" + headerString(header, 0, 100);
+            longName = null;
+            long size = entrySize(header);
+            char type = (char) header[156];
+            EntryInputStream entry = new EntryInputStream(in, size);
+            if (type == 'L') {
+                longName = readString(entry).trim();
+            } else if (type == '0' || type == 0) {
+                readUserFile(aliasIdOf(name), entry, handler);
+            }
+            entry.skipRest();
+            long padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+            skipFully(in, padding);
+        }
+    }
+
+    // Octal, or base-256 for entries of 8 GB and more
+    private static long entrySize(byte[] header) {
+        if ((header[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        return Long.parseLong(headerString(header, 124, 12).trim(), 8);
+    }
+
+    private static String aliasIdOf(String name) {
+        String base = name.substring(name.lastIndexOf('/') + 1);
+        if (base.endsWith(IOProperties.USER_FILE_EXTENSION)) {
+            base = base.substring(0, base.length() - IOProperties.USER_FILE_EXTENSION.length());
+        }
+        return base;
+    }
+
+    /**
+     * Split a user file into posts as they are read, the same way as
+     * IOReadWrite.convertTxtFileToAliasObj does (but without blank posts)
+     */
+    private void readUserFile(String aliasId, InputStream in, PostRecordHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        StringBuilder pending = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            pending.append(line);
+            int end;
+            while ((end = pending.indexOf(IOProperties.DATA_SEPERATOR)) >= 0) {
+                emitPost(aliasId, pending.substring(0, end), handler);
+                pending.delete(0, end + IOProperties.DATA_SEPERATOR.length());
+            }
+        }
+        if (pending.length() > 0) {
+            emitPost(aliasId, pending.toString(), handler);
+        }
+    }
+
+    private static void emitPost(String aliasId, String post, PostRecordHandler handler) {
+        if (post.length() > 9 && post.substring(0, 8).matches(TIME_PATTERN) && !post.substring(9).trim().isEmpty()) {
+            handler.handlePost(aliasId, post.substring(0, 8), post.substring(9));
+        }
+    }
+
+    private void readJsonLines(InputStream in, PostRecordHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Map<String, String> record;
+            try {
+                record = parseFlatJsonObject(line);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Line " + lineNumber + ": " + ex.getMessage());
+            }
+            String alias = record.containsKey("alias") ? record.get("alias") : record.get("user");
+            String post = record.containsKey("post") ? record.get("post") : record.get("text");
+            String time = record.containsKey("time") ? record.get("time") : record.get("timestamp");
+            if (alias == null || post == null) {
+                throw new IOException("Line " + lineNumber + ": missing alias or post");
+            }
+            if (!post.trim().isEmpty()) {
+                handler.handlePost(alias, time, post);
+            }
+        }
+    }
+
+    /**
+     * Parse a JSON object whose values are strings, numbers, booleans or null
+     * (nested objects and arrays are not supported)
+     *
+     * @param json
+     * @return the values as strings (null for JSON null)
+     */
+    public static Map<String, String> parseFlatJsonObject(String json) {
+        Map<String, String> values = new HashMap<>();
+        int[] pos = {skipWhitespace(json, 0)};
+        expect(json, pos, '{');
+        pos[0] = skipWhitespace(json, pos[0]);
+        if (pos[0] < json.length() && json.charAt(pos[0]) == '}') {
+            return values;
+        }
+        while (true) {
+            pos[0] = skipWhitespace(json, pos[0]);
+            String key = parseJsonString(json, pos);
+            pos[0] = skipWhitespace(json, pos[0]);
+            expect(json, pos, ':');
+            pos[0] = skipWhitespace(json, pos[0]);
+            String value;
+            if (pos[0] < json.length() && json.charAt(pos[0]) == '"') {
+                value = parseJsonString(json, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < json.length() && ",} \t".indexOf(json.charAt(pos[0])) < 0) {
+                    pos[0]++;
+                }
+                value = json.substring(start, pos[0]);
+                if (value.isEmpty() || value.charAt(0) == '{' || value.charAt(0) == '[') {
+                    throw new IllegalArgumentException("Unsupported value at " + start);
+                }
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            values.put(key, value);
+            pos[0] = skipWhitespace(json, pos[0]);
+            if (pos[0] < json.length() && json.charAt(pos[0]) == ',') {
+                pos[0]++;
+            } else {
+                expect(json, pos, '}');
+                return values;
+            }
+        }
+    }
+
+    private static int skipWhitespace(String json, int pos) {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static void expect(String json, int[] pos, char c) {
+        if (pos[0] >= json.length() || json.charAt(pos[0]) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    private static String parseJsonString(String json, int[] pos) {
+        expect(json, pos, '"');
+        StringBuilder value = new StringBuilder();
+        while (pos[0] < json.length()) {
+            char c = json.charAt(pos[0]++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (pos[0] >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(pos[0]++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (pos[0] + 4 > json.length()) {
+                        throw new IllegalArgumentException("Bad unicode escape at " + pos[0]);
+                    }
+                    value.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default:
+                    value.append(escaped);	// \" \\ \/
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    private static String headerString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        StringBuilder value = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int c;
+        while ((c = reader.read()) > 0) {
+            value.append((char) c);
+        }
+        return value.toString();
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated tar archive");
+            }
+            read += n;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated tar archive");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * The content of one tar entry. Closing it does not close the archive.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        EntryInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        void skipRest() throws IOException {
+            skipFully(in, remaining);
+            remaining = 0;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.test.IOHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary file holding the alias IDs and (normalized) feature vectors of a set
+ * of aliases, so that worker processes can share the result of a single
+ * feature extraction. The layout is
+ *
+ * [int magic][int nrOfAliases][int nrOfFeatures][rows of nrOfFeatures floats][IDs]
+ *
+ * with the rows first and of fixed width, so that a Reader can load any range
+ * of rows without reading the rest of the matrix, and a Writer can write the
+ * rows one at a time.
+ *
+ * @author ITE
+ */
+public class FeatureMatrixFile {
+
+    private static final int MAGIC = 0x5354594e;	// "STYN"
+    private static final int HEADER_SIZE = 12;
+
+    private final String[] ids;
+    private final float[][] vectors;
+
+    public FeatureMatrixFile(String[] ids, float[][] vectors) {
+        this.ids = ids;
+        this.vectors = vectors;
+    }
+
+    public String[] getIds() {
+        return ids;
+    }
+
+    public float[][] getVectors() {
+        return vectors;
+    }
+
+    public int getNrOfAliases() {
+        return ids.length;
+    }
+
+    /**
+     * Write the matrix to a temporary file which is then atomically moved into
+     * place, so that readers never see a partially written matrix
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (Writer writer = new Writer(file, vectors.length == 0 ? 0 : vectors[0].length)) {
+            for (int i = 0; i < ids.length; i++) {
+                writer.add(ids[i], vectors[i]);
+            }
+        }
+    }
+
+    public static FeatureMatrixFile read(File file) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            return new FeatureMatrixFile(reader.readIds(), reader.readRows(0, reader.getNrOfAliases()));
+        }
+    }
+
+    /**
+     * Writes a matrix one row at a time. Only the IDs are kept in memory. The
+     * file appears (atomically) when the writer is closed.
+     */
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final File tmp;
+        private final int nrOfFeatures;
+        private final DataOutputStream out;
+        private final List<String> ids;
+
+        public Writer(File file, int nrOfFeatures) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            this.nrOfFeatures = nrOfFeatures;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            this.ids = new ArrayList<>();
+            out.writeInt(MAGIC);
+            out.writeInt(0);			// Set on close
+            out.writeInt(nrOfFeatures);
+        }
+
+        public void add(String id, float[] vector) throws IOException {
+            if (vector.length != nrOfFeatures) {
+                throw new IllegalArgumentException("Expected " + nrOfFeatures + " features, got " + vector.length);
+            }
+            for (int j = 0; j < nrOfFeatures; j++) {
+                out.writeFloat(vector[j]);
+            }
+            ids.add(id);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                for (String id : ids) {
+                    out.writeUTF(id);
+                }
+            } finally {
+                out.close();
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                raf.seek(4);
+                raf.writeInt(ids.size());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Reads ranges of rows, or the IDs, from a matrix file
+     */
+    public static class Reader implements Closeable {
+
+        private final File file;
+        private final RandomAccessFile raf;
+        private final int nrOfAliases;
+        private final int nrOfFeatures;
+
+        public Reader(File file) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "r");
+            if (raf.readInt() != MAGIC) {
+                raf.close();
+                throw new IOException("Not a feature matrix file: " + file);
+            }
+            nrOfAliases = raf.readInt();
+            nrOfFeatures = raf.readInt();
+        }
+
+        public int getNrOfAliases() {
+            return nrOfAliases;
+        }
+
+        public int getNrOfFeatures() {
+            return nrOfFeatures;
+        }
+
+        /**
+         * @param from first row
+         * @param to row after the last
+         * @return the rows [from, to)
+         * @throws IOException
+         */
+        public float[][] readRows(int from, int to) throws IOException {
+            if (from < 0 || to > nrOfAliases || from > to) {
+                throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " of " + nrOfAliases);
+            }
+            float[][] rows = new float[to - from][nrOfFeatures];
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(4, Math.min(1 << 16, rows.length * nrOfFeatures * 4) / 4 * 4));
+            long position = HEADER_SIZE + (long) from * nrOfFeatures * 4;
+            long end = HEADER_SIZE + (long) to * nrOfFeatures * 4;
+            int row = 0;
+            int column = 0;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, position + buffer.position());
+                    if (n < 0) {
+                        throw new IOException("Truncated feature matrix file: " + file);
+                    }
+                }
+                position += buffer.limit();
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    rows[row][column++] = buffer.getFloat();
+                    if (column == nrOfFeatures) {
+                        column = 0;
+                        row++;
+                    }
+                }
+            }
+            return rows;
+        }
+
+        public String[] readIds() throws IOException {
+            FileChannel channel = raf.getChannel();
+            channel.position(HEADER_SIZE + (long) nrOfAliases * nrOfFeatures * 4);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            String[] ids = new String[nrOfAliases];
+            for (int i = 0; i < nrOfAliases; i++) {
+                ids[i] = in.readUTF();
+            }
+            return ids;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.test.IOHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable list of function words together with an open addressing hash
+ * table mapping each word to its feature index. The bundled lexicons are
+ * compiled at build time (see main) into binary resources holding both the
+ * words and the ready-made table, so loading them is a single read without any
+ * hashing. Loaded lexicons are cached and shared by all instances.
+ *
+ * Since String.hashCode is fully specified, a table compiled on one JVM is
+ * valid on every other.
+ *
+ * @author ITE
+ */
+public class FunctionWordLexicon {
+
+    private static final int MAGIC = 0x4c455849;	// "LEXI"
+    private static final int VERSION = 1;
+    private static final ConcurrentHashMap<String, FunctionWordLexicon> CACHE = new ConcurrentHashMap<>();
+
+    private final String[] words;
+    private final int[] table;				// Feature index + 1 of the word in each slot, 0 if empty
+
+    private FunctionWordLexicon(String[] words, int[] table) {
+        this.words = words;
+        this.table = table;
+    }
+
+    /**
+     * Build a lexicon from a list of words. If a word occurs more than once,
+     * the first occurrence gives its feature index.
+     *
+     * @param wordList
+     * @return
+     */
+    public static FunctionWordLexicon fromWords(List<String> wordList) {
+        String[] words = wordList.toArray(new String[wordList.size()]);
+        int capacity = Integer.highestOneBit(Math.max(2, words.length) * 2 - 1) << 1;
+        int[] table = new int[capacity];
+        for (int i = 0; i < words.length; i++) {
+            int slot = findSlot(table, words, words[i]);
+            if (table[slot] == 0) {
+                table[slot] = i + 1;
+            }
+        }
+        return new FunctionWordLexicon(words, table);
+    }
+
+    // The slot holding the word, or the empty slot where it should go
+    private static int findSlot(int[] table, String[] words, String word) {
+        int mask = table.length - 1;
+        int h = word.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (table[slot] != 0 && !words[table[slot] - 1].equals(word)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @param word
+     * @return the feature index of the word, or -1 if it is not a function word
+     */
+    public int indexOf(String word) {
+        return table[findSlot(table, words, word)] - 1;
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    public String getWord(int index) {
+        return words[index];
+    }
+
+    public List<String> getWords() {
+        return Collections.unmodifiableList(Arrays.asList(words));
+    }
+
+    /**
+     * Read a plain text lexicon (UTF-8, one word per line, empty lines ignored)
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static FunctionWordLexicon readText(InputStream in) throws IOException {
+        List<String> wordList = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String strLine;
+        while ((strLine = br.readLine()) != null) {
+            String trimmedLine = strLine.trim();
+            if (!"".equals(trimmedLine)) {
+                wordList.add(trimmedLine);
+            }
+        }
+        return fromWords(wordList);
+    }
+
+    public static FunctionWordLexicon readCompiled(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a compiled function word lexicon");
+        }
+        String[] words = new String[data.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = data.readUTF();
+        }
+        int[] table = new int[data.readInt()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = data.readInt();
+        }
+        return new FunctionWordLexicon(words, table);
+    }
+
+    public void writeCompiled(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(words.length);
+            for (String word : words) {
+                out.writeUTF(word);
+            }
+            out.writeInt(table.length);
+            for (int slot : table) {
+                out.writeInt(slot);
+            }
+        }
+    }
+
+    /**
+     * The name of the compiled classpath resource for a lexicon file name, e.g.
+     * lexicon/functionWords_Swedish.lex for functionWords_Swedish.txt
+     *
+     * @param name
+     * @return
+     */
+    public static String resourceName(String name) {
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        return IOProperties.LEXICON_RESOURCE_DIR + "/" + base + IOProperties.LEXICON_EXTENSION;
+    }
+
+    /**
+     * Load a bundled lexicon from the classpath
+     *
+     * @param name the lexicon file name, such as IOProperties.FUNCTION_WORDS
+     * @return
+     * @throws IOException if there is no such lexicon
+     */
+    public static FunctionWordLexicon loadBundled(String name) throws IOException {
+        String resource = resourceName(name);
+        FunctionWordLexicon lexicon = CACHE.get(resource);
+        if (lexicon == null) {
+            InputStream in = FunctionWordLexicon.class.getClassLoader().getResourceAsStream(resource);
+            if (in == null) {
+                throw new IOException("No bundled function word lexicon " + resource);
+            }
+            try {
+                lexicon = readCompiled(in);
+            } finally {
+                in.close();
+            }
+            FunctionWordLexicon previous = CACHE.putIfAbsent(resource, lexicon);
+            if (previous != null) {
+                lexicon = previous;
+            }
+        }
+        return lexicon;
+    }
+
+    /**
+     * Load a user supplied plain text lexicon. Cached by canonical path.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static FunctionWordLexicon loadFile(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        FunctionWordLexicon lexicon = CACHE.get(key);
+        if (lexicon == null) {
+            try (InputStream in = new FileInputStream(file)) {
+                lexicon = readText(in);
+            }
+            FunctionWordLexicon previous = CACHE.putIfAbsent(key, lexicon);
+            if (previous != null) {
+                lexicon = previous;
+            }
+        }
+        return lexicon;
+    }
+
+    /**
+     * Compiles every .txt lexicon in a source directory into the binary format,
+     * placed under the class output directory. Run by the build.
+     *
+     * @param args source directory and class output directory
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: sourceDir classesDir");
+            System.exit(2);
+        }
+        File[] sources = new File(args[0]).listFiles();
+        if (sources == null) {
+            throw new IOException("No such directory " + args[0]);
+        }
+        for (File source : sources) {
+            if (source.getName().endsWith(".txt")) {
+                FunctionWordLexicon lexicon;
+                try (InputStream in = new FileInputStream(source)) {
+                    lexicon = readText(in);
+                }
+                File output = new File(args[1], resourceName(source.getName()));
+                if (!output.getParentFile().isDirectory() && !output.getParentFile().mkdirs()) {
+                    throw new IOException("Could not create " + output.getParentFile());
+                }
+                lexicon.writeCompiled(output);
+            }
+        }
+    }
+}
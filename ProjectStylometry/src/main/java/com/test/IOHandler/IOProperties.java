@@ -14,4 +14,8 @@ public class IOProperties {
     public static final String USER_FILE_EXTENSION = ".txt";
     public static final String DATA_SEPERATOR = "This seperates post";
     public static final String FUNCTION_WORDS = "functionWords_Swedish.txt";
+    public static final String FUNCTION_WORDS_PROPERTY = "stylometry.functionWords";
+    public static final String LEXICON_RESOURCE_DIR = "lexicon";
+    public static final String LEXICON_EXTENSION = ".lex";
+    public static final float TIME_PROFILE_WEIGHT = 0.0f;
 }
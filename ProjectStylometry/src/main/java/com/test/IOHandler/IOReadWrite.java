@@ -11,6 +11,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.swing.ImageIcon;
 
@@ -47,11 +48,82 @@ public class IOReadWrite {
                 continue;
             }
         }
+        // Also fills the time histograms
         alias.setPostTime(timeList);
         alias.setPosts(postList);
         return alias;
     }
     
+    /**
+     * Convert every user file with the given extension in a directory to an
+     * alias, in alphabetical order. Users without any posts are skipped.
+     *
+     * @param basePath
+     * @param extension
+     * @return
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public List<Alias> convertTxtFilesToAliasObjs(String basePath, String extension) throws FileNotFoundException, IOException {
+        List<Alias> aliasList = new ArrayList<Alias>();
+        for (String fileName : listUserFiles(basePath, extension)) {
+            Alias alias = convertTxtFileToAliasObj(basePath, fileName, extension);
+            if (!alias.getPosts().isEmpty()) {
+                aliasList.add(alias);
+            }
+        }
+        return aliasList;
+    }
+
+    /**
+     * The names (without extension) of the user files with the given extension
+     * in a directory, in alphabetical order. Use with convertTxtFileToAliasObj
+     * to read one alias at a time.
+     *
+     * @param basePath
+     * @param extension
+     * @return
+     * @throws FileNotFoundException
+     */
+    public List<String> listUserFiles(String basePath, String extension) throws FileNotFoundException {
+        File[] files = new File(basePath).listFiles();
+        if (files == null) {
+            throw new FileNotFoundException(basePath);
+        }
+        Arrays.sort(files);
+        List<String> fileNames = new ArrayList<String>();
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(extension)) {
+                fileNames.add(name.substring(0, name.length() - extension.length()));
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * Parse the hour from a time of day on the form HH:mm:ss
+     *
+     * @param time
+     * @return
+     */
+    public static int parseHourOfDay(String time) {
+        return (time.charAt(0) - '0') * 10 + (time.charAt(1) - '0');
+    }
+
+    /**
+     * Parse the number of seconds since midnight from a time of day on the
+     * form HH:mm:ss
+     *
+     * @param time
+     * @return
+     */
+    public static int parseSecondOfDay(String time) {
+        int minute = (time.charAt(3) - '0') * 10 + (time.charAt(4) - '0');
+        int second = (time.charAt(6) - '0') * 10 + (time.charAt(7) - '0');
+        return (parseHourOfDay(time) * 60 + minute) * 60 + second;
+    }
+
     public String readTxtFileAsString(String basePath, String fileName, String extension) throws FileNotFoundException, IOException {
         StringBuilder stringBuilder = new StringBuilder();
         try {
@@ -0,0 +1,17 @@
+package com.test.IOHandler;
+
+/**
+ * Receives the posts read by an ArchiveReader, one at a time
+ *
+ * @author ITE
+ */
+public interface PostRecordHandler {
+
+    /**
+     * @param aliasId
+     * @param time the post time as found in the archive (HH:mm:ss, or a date
+     * and time such as 2014-03-01T13:45:00), or null if unknown
+     * @param post
+     */
+    void handlePost(String aliasId, String time, String post);
+}
@@ -3,6 +3,8 @@ package com.test.model;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
 
@@ -12,14 +14,24 @@ import java.util.List;
  */
 public class Alias {
 
+    public static final int HOURS_PER_DAY = 24;
+    public static final int DAYS_PER_WEEK = 7;
+
     private List<Float> featureVector;
+    private float[] featureArray;               // Primitive copy of featureVector used when comparing
     private int nrOfFeatures;
     private String user;
     private String type;
     private ArrayList<ArrayList<Float>> featureVectorPostList;
     public List<String> posts;
-    public List<String> postTime;
+    public List postTime;                       // Timestamps or HH:mm:ss strings
     public String singlePost;
+    private int nrOfPosts = -1;                 // Set when the posts are not kept
+    // Posting-time activity, filled once during ingestion
+    private final int[] hourHistogram = new int[HOURS_PER_DAY];
+    private final int[] dayHistogram = new int[DAYS_PER_WEEK];
+    private int nrOfTimedPosts;
+    private float[] timeProfile;                // Cached by getTimeProfile
 
     public Alias(String userID) throws SQLException {
         this.user = userID;
@@ -66,6 +78,24 @@ public class Alias {
         this.posts = posts;
     }
 
+    /**
+     * The number of posts the alias was built from. This is the size of the
+     * post list unless it has been set explicitly, for aliases whose posts
+     * were not kept.
+     *
+     * @return
+     */
+    public int getNrOfPosts() {
+        if (nrOfPosts >= 0) {
+            return nrOfPosts;
+        }
+        return posts == null ? 0 : posts.size();
+    }
+
+    public void setNrOfPosts(int nrOfPosts) {
+        this.nrOfPosts = nrOfPosts;
+    }
+
     public String getSinglePost() {
         return singlePost;
     }
@@ -91,6 +121,25 @@ public class Alias {
 
     public void setFeatureVector(List<Float> featureVector) {
         this.featureVector = featureVector;
+        this.featureArray = null;
+    }
+
+    /**
+     * The feature vector as a primitive array (missing values become NaN). The
+     * array is created once and kept in sync by setFeatureValue.
+     *
+     * @return
+     */
+    public float[] getFeatureArray() {
+        if (featureArray == null) {
+            float[] array = new float[featureVector.size()];
+            for (int i = 0; i < array.length; i++) {
+                Float f = featureVector.get(i);
+                array[i] = (f != null ? f : Float.NaN);
+            }
+            featureArray = array;
+        }
+        return featureArray;
     }
 
     public ArrayList<ArrayList<Float>> getFeatureVectorPosList() {
@@ -103,6 +152,9 @@ public class Alias {
 
     public void setFeatureValue(int index, float newValue) {
         featureVector.set(index, newValue);
+        if (featureArray != null) {
+            featureArray[index] = newValue;
+        }
     }
 
     public int getNrOfFeatures() {
@@ -122,36 +174,129 @@ public class Alias {
     }
 
     public double[] getTimeVector() throws SQLException {
-
-        double[] rr = new double[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-
-        for (String postHour : postTime) {
-            String[] time = postHour.split(":");
-            int hr = Integer.parseInt(time[0]);
-            rr[hr]++;
+        double[] rr = new double[HOURS_PER_DAY];
+        for (int i = 0; i < HOURS_PER_DAY; i++) {
+            rr[i] = hourHistogram[i];
         }
         return rr;
     }
 
     public static double[] getTimeVectorArray(List postTime) throws SQLException {
 
-        double[] rr = new double[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+        double[] rr = new double[HOURS_PER_DAY];
+        Calendar calendar = Calendar.getInstance();
         Iterator itr = postTime.iterator();
 
         while (itr.hasNext()) {
             Timestamp key = (Timestamp) itr.next();
-            int hr = key.getHours();
-            rr[hr]++;
+            calendar.setTime(key);
+            rr[calendar.get(Calendar.HOUR_OF_DAY)]++;
         }
         return rr;
     }
 
+    /**
+     * Register the hour of day (0-23) at which a post was written
+     *
+     * @param hour
+     */
+    public void addPostHour(int hour) {
+        hourHistogram[hour]++;
+        nrOfTimedPosts++;
+        timeProfile = null;
+    }
+
+    /**
+     * Register the day of week at which a post was written, using the
+     * Calendar.DAY_OF_WEEK numbering (Sunday = 1)
+     *
+     * @param calendarDay
+     */
+    public void addPostDay(int calendarDay) {
+        dayHistogram[calendarDay - Calendar.SUNDAY]++;
+        timeProfile = null;
+    }
+
+    public int[] getHourHistogram() {
+        return hourHistogram;
+    }
+
+    public int[] getDayHistogram() {
+        return dayHistogram;
+    }
+
+    public int getNrOfTimedPosts() {
+        return nrOfTimedPosts;
+    }
+
+    /**
+     * The relative posting activity per hour of day followed by the relative
+     * activity per day of week (all zeros if no post times are known). The
+     * array is created once and kept until the histograms change, so it must
+     * not be modified.
+     *
+     * @return
+     */
+    public float[] getTimeProfile() {
+        if (timeProfile != null) {
+            return timeProfile;
+        }
+        float[] profile = new float[HOURS_PER_DAY + DAYS_PER_WEEK];
+        if (nrOfTimedPosts > 0) {
+            for (int i = 0; i < HOURS_PER_DAY; i++) {
+                profile[i] = hourHistogram[i] / (float) nrOfTimedPosts;
+            }
+            for (int i = 0; i < DAYS_PER_WEEK; i++) {
+                profile[HOURS_PER_DAY + i] = dayHistogram[i] / (float) nrOfTimedPosts;
+            }
+        }
+        timeProfile = profile;
+        return profile;
+    }
+
+    /**
+     * Set the post times and rebuild the time histograms from them. Times can
+     * be given as Timestamps or as strings on the form HH:mm:ss; other entries
+     * are ignored.
+     *
+     * @param postTime
+     */
     public void setPostTime(List postTime) {
         this.postTime = postTime;
+        Arrays.fill(hourHistogram, 0);
+        Arrays.fill(dayHistogram, 0);
+        nrOfTimedPosts = 0;
+        timeProfile = null;
+        if (postTime == null) {
+            return;
+        }
+        Calendar calendar = null;
+        for (Object time : postTime) {
+            if (time instanceof Timestamp) {
+                if (calendar == null) {
+                    calendar = Calendar.getInstance();
+                }
+                calendar.setTime((Timestamp) time);
+                addPostHour(calendar.get(Calendar.HOUR_OF_DAY));
+                addPostDay(calendar.get(Calendar.DAY_OF_WEEK));
+            } else if (time instanceof String) {
+                String timeOfDay = (String) time;
+                if (timeOfDay.length() >= 2 && Character.isDigit(timeOfDay.charAt(0)) && Character.isDigit(timeOfDay.charAt(1))) {
+                    int hour = (timeOfDay.charAt(0) - '0') * 10 + (timeOfDay.charAt(1) - '0');
+                    if (hour < HOURS_PER_DAY) {
+                        addPostHour(hour);
+                    }
+                }
+            }
+        }
     }
 
+    /**
+     * The post times as given to setPostTime: Timestamps (from the database)
+     * or strings on the form HH:mm:ss (from the user files)
+     *
+     * @return
+     */
     public List getPostTime() {
         return postTime;
     }
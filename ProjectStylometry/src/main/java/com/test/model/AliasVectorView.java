@@ -0,0 +1,66 @@
+package com.test.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, read-only view of the feature vector in one slot of an
+ * OffHeapAliasRegistry. Moving the view to another slot does not allocate
+ * anything, so a single view can be used to scan millions of aliases.
+ *
+ * @author ITE
+ */
+public class AliasVectorView {
+
+    private final OffHeapAliasRegistry registry;
+    private ByteBuffer slab;
+    private int base;
+    private int slot = -1;
+
+    AliasVectorView(OffHeapAliasRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Position the view on a slot
+     *
+     * @param slot
+     * @return this view
+     */
+    public AliasVectorView moveTo(int slot) {
+        this.slot = slot;
+        this.slab = registry.slab(slot);
+        this.base = registry.featureOffset(slot);
+        return this;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return the ID of the alias in the current slot
+     * @throws IllegalArgumentException if the slot has been freed
+     */
+    public String getId() {
+        return registry.getId(slot);
+    }
+
+    public int getNrOfFeatures() {
+        return registry.getNrOfFeatures();
+    }
+
+    public float get(int feature) {
+        return slab.getFloat(base + 4 * feature);
+    }
+
+    /**
+     * Copy the features to a heap array
+     *
+     * @param features
+     */
+    public void copyTo(float[] features) {
+        for (int i = 0; i < features.length; i++) {
+            features[i] = slab.getFloat(base + 4 * i);
+        }
+    }
+}
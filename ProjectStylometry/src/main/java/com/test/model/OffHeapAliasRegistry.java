@@ -0,0 +1,311 @@
+package com.test.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores alias IDs and fixed-width feature vectors outside the Java heap, in
+ * direct buffers ("slabs") of a fixed number of slots each. Every slot holds
+ * the length of the UTF-8 encoded ID (-1 if the slot is free), the ID bytes
+ * and the features:
+ *
+ * [short idLength][MAX_ID_BYTES bytes id][float feature 0] ... [float feature n-1]
+ *
+ * The only per-alias heap data is an int array hash table from ID to slot and
+ * a stack of free slots. Deleted slots are reused by later appends, so nothing
+ * is ever compacted; new slabs are allocated when all slots are in use.
+ *
+ * The vectors are read through flyweight AliasVectorViews, which can be moved
+ * between slots without allocating anything. The registry is not thread safe.
+ *
+ * @author ITE
+ */
+public class OffHeapAliasRegistry {
+
+    public static final int MAX_ID_BYTES = 62;
+    private static final int ID_HEADER = 2 + MAX_ID_BYTES;
+    // 4096 slots of 456 features is about 7.7 MB of direct memory per slab
+    private static final int DEFAULT_SLOTS_PER_SLAB = 1 << 12;
+
+    private final int nrOfFeatures;
+    private final int slotSize;
+    private final int slotsPerSlab;
+    private final List<ByteBuffer> slabs;
+    private int highWater;					// Slots below this have been used
+    private int[] freeSlots;
+    private int nrOfFreeSlots;
+    private int size;
+
+    // Open addressing table of slot + 1 (0 = empty, -1 = deleted) with the ID hashes
+    private int[] table;
+    private int[] hashes;
+    private int nrOfUsedTableEntries;
+
+    public OffHeapAliasRegistry(int nrOfFeatures) {
+        this(nrOfFeatures, DEFAULT_SLOTS_PER_SLAB);
+    }
+
+    public OffHeapAliasRegistry(int nrOfFeatures, int slotsPerSlab) {
+        this.nrOfFeatures = nrOfFeatures;
+        this.slotSize = ID_HEADER + 4 * nrOfFeatures;
+        if ((long) slotSize * slotsPerSlab > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Slab too large: " + slotsPerSlab + " slots of " + slotSize + " bytes");
+        }
+        this.slotsPerSlab = slotsPerSlab;
+        slabs = new ArrayList<>();
+        freeSlots = new int[16];
+        table = new int[16];
+        hashes = new int[16];
+    }
+
+    public int getNrOfFeatures() {
+        return nrOfFeatures;
+    }
+
+    /**
+     * @return the number of aliases in the registry
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots used so far, live or free; all live slots
+     * are below this
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    ByteBuffer slab(int slot) {
+        return slabs.get(slot / slotsPerSlab);
+    }
+
+    int offset(int slot) {
+        return (slot % slotsPerSlab) * slotSize;
+    }
+
+    int featureOffset(int slot) {
+        return offset(slot) + ID_HEADER;
+    }
+
+    public boolean isLive(int slot) {
+        return slot >= 0 && slot < highWater && slab(slot).getShort(offset(slot)) >= 0;
+    }
+
+    /**
+     * @param slot
+     * @return the ID of the alias in the slot
+     * @throws IllegalArgumentException if the slot is not in use
+     */
+    public String getId(int slot) {
+        if (!isLive(slot)) {
+            throw new IllegalArgumentException(slot >= 0 && slot < highWater
+                    ? "Slot " + slot + " has been freed" : "Slot " + slot + " has never been allocated");
+        }
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        byte[] bytes = new byte[slab.getShort(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = slab.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Add an alias, or replace the features of an alias already in the
+     * registry
+     *
+     * @param id
+     * @param features
+     * @return the slot of the alias
+     */
+    public int put(String id, float[] features) {
+        if (features.length != nrOfFeatures) {
+            throw new IllegalArgumentException("Expected " + nrOfFeatures + " features, got " + features.length);
+        }
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Alias ID longer than " + MAX_ID_BYTES + " bytes: " + id);
+        }
+        int hash = hash(idBytes);
+        int entry = findEntry(idBytes, hash);
+        int slot;
+        if (entry >= 0) {
+            slot = table[entry] - 1;
+        } else {
+            slot = allocateSlot();
+            writeId(slot, idBytes);
+            insertEntry(slot, hash);
+            size++;
+        }
+        ByteBuffer slab = slab(slot);
+        int offset = featureOffset(slot);
+        for (int i = 0; i < nrOfFeatures; i++) {
+            slab.putFloat(offset + 4 * i, features[i]);
+        }
+        return slot;
+    }
+
+    public int put(Alias alias) {
+        return put(alias.getUserID(), alias.getFeatureArray());
+    }
+
+    /**
+     * @param id
+     * @return the slot of the alias, or -1 if it is not in the registry
+     */
+    public int slotOf(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int entry = findEntry(idBytes, hash(idBytes));
+        return entry < 0 ? -1 : table[entry] - 1;
+    }
+
+    /**
+     * Remove an alias. Its slot is reused by a later put.
+     *
+     * @param id
+     * @return false if the alias was not in the registry
+     */
+    public boolean remove(String id) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int entry = findEntry(idBytes, hash(idBytes));
+        if (entry < 0) {
+            return false;
+        }
+        int slot = table[entry] - 1;
+        table[entry] = -1;
+        slab(slot).putShort(offset(slot), (short) -1);
+        if (nrOfFreeSlots == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[nrOfFreeSlots++] = slot;
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove all aliases and drop the slabs. Java has no way to free a direct
+     * buffer explicitly, so their memory is returned when they are garbage
+     * collected; views must not be used after this.
+     */
+    public void clear() {
+        slabs.clear();
+        highWater = 0;
+        nrOfFreeSlots = 0;
+        size = 0;
+        table = new int[16];
+        hashes = new int[16];
+        nrOfUsedTableEntries = 0;
+    }
+
+    /**
+     * @return the direct memory held by the slabs
+     */
+    public long getAllocatedBytes() {
+        return (long) slabs.size() * slotsPerSlab * slotSize;
+    }
+
+    /**
+     * A flyweight view, initially not positioned on any slot
+     *
+     * @return
+     */
+    public AliasVectorView newView() {
+        return new AliasVectorView(this);
+    }
+
+    private int allocateSlot() {
+        if (nrOfFreeSlots > 0) {
+            return freeSlots[--nrOfFreeSlots];
+        }
+        if (highWater == slabs.size() * slotsPerSlab) {
+            slabs.add(ByteBuffer.allocateDirect(slotSize * slotsPerSlab).order(ByteOrder.nativeOrder()));
+        }
+        return highWater++;
+    }
+
+    private void writeId(int slot, byte[] idBytes) {
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        slab.putShort(offset, (short) idBytes.length);
+        for (int i = 0; i < idBytes.length; i++) {
+            slab.put(offset + 2 + i, idBytes[i]);
+        }
+    }
+
+    private static int hash(byte[] idBytes) {
+        int h = Arrays.hashCode(idBytes);
+        return h ^ (h >>> 16);
+    }
+
+    private boolean idEquals(int slot, byte[] idBytes) {
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        if (slab.getShort(offset) != idBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < idBytes.length; i++) {
+            if (slab.get(offset + 2 + i) != idBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The table entry of the ID, or -1
+    private int findEntry(byte[] idBytes, int hash) {
+        int mask = table.length - 1;
+        for (int entry = hash & mask; table[entry] != 0; entry = (entry + 1) & mask) {
+            if (table[entry] > 0 && hashes[entry] == hash && idEquals(table[entry] - 1, idBytes)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private void insertEntry(int slot, int hash) {
+        if (2 * (nrOfUsedTableEntries + 1) > table.length) {
+            rehash();
+        }
+        int mask = table.length - 1;
+        int entry = hash & mask;
+        while (table[entry] > 0) {
+            entry = (entry + 1) & mask;
+        }
+        if (table[entry] == 0) {
+            nrOfUsedTableEntries++;
+        }
+        table[entry] = slot + 1;
+        hashes[entry] = hash;
+    }
+
+    // Grow the table if needed and drop the deleted entries
+    private void rehash() {
+        int[] oldTable = table;
+        int[] oldHashes = hashes;
+        int capacity = table.length;
+        while (4 * (size + 1) > capacity) {
+            capacity *= 2;
+        }
+        table = new int[capacity];
+        hashes = new int[capacity];
+        nrOfUsedTableEntries = 0;
+        int mask = capacity - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] > 0) {
+                int entry = oldHashes[i] & mask;
+                while (table[entry] != 0) {
+                    entry = (entry + 1) & mask;
+                }
+                table[entry] = oldTable[i];
+                hashes[entry] = oldHashes[i];
+                nrOfUsedTableEntries++;
+            }
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.FeatureMatrixFile;
+import com.test.IOHandler.IOProperties;
+import com.test.IOHandler.IOReadWrite;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups aliases that are likely to belong to the same author (sockpuppets)
+ * without comparing all pairs. Candidate neighbors are found with random
+ * hyperplane locality sensitive hashing: each of a number of tables gives
+ * every alias a signature of sign bits from random projections, and only
+ * aliases sharing a signature in some table are compared. The k most similar
+ * candidates of each alias with a similarity at or above the threshold form a
+ * sparse similarity graph, whose connected components are found with a
+ * lock-free parallel union-find.
+ *
+ * Each cluster gets a cohesion score, the average similarity over the graph
+ * edges inside it.
+ *
+ * With time profiles set, the candidates are scored like compareAliases does,
+ * combining the feature similarity with the posting-time similarity. The
+ * candidates themselves are still found from the feature vectors alone.
+ *
+ * @author ITE
+ */
+public class AliasClustering {
+
+    private final int nrOfTables;
+    private final int nrOfBits;
+    private final int k;
+    private final float threshold;
+    private int maxBucketSize = 256;
+    private int minClusterSize = 2;
+    private long seed = 42;
+    private int nrOfThreads = Runtime.getRuntime().availableProcessors();
+    private float[][] timeProfiles;
+    private float timeProfileWeight;
+
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private float[] edgeSimilarities;
+    private long nrOfComparisons;
+
+    /**
+     * A group of aliases connected in the similarity graph
+     */
+    public static class Cluster {
+
+        private final int[] members;
+        private final int nrOfEdges;
+        private final double cohesion;
+
+        Cluster(int[] members, int nrOfEdges, double cohesion) {
+            this.members = members;
+            this.nrOfEdges = nrOfEdges;
+            this.cohesion = cohesion;
+        }
+
+        /**
+         * @return the alias indexes, in increasing order
+         */
+        public int[] getMembers() {
+            return members;
+        }
+
+        public int getNrOfEdges() {
+            return nrOfEdges;
+        }
+
+        /**
+         * @return the average similarity of the edges in the cluster
+         */
+        public double getCohesion() {
+            return cohesion;
+        }
+    }
+
+    /**
+     * @param nrOfTables number of hash tables, more tables find more neighbors
+     * @param nrOfBits signature bits per table (at most 31), more bits give
+     * smaller buckets
+     * @param k number of neighbors kept per alias
+     * @param threshold minimum similarity of a graph edge
+     */
+    public AliasClustering(int nrOfTables, int nrOfBits, int k, float threshold) {
+        if (nrOfBits < 1 || nrOfBits > 31) {
+            throw new IllegalArgumentException("Signature bits must be between 1 and 31, got " + nrOfBits);
+        }
+        this.nrOfTables = nrOfTables;
+        this.nrOfBits = nrOfBits;
+        this.k = k;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Buckets larger than this are not compared all against all; instead each
+     * alias is compared with the next maxBucketSize aliases of the bucket
+     *
+     * @param maxBucketSize
+     */
+    public void setMaxBucketSize(int maxBucketSize) {
+        this.maxBucketSize = maxBucketSize;
+    }
+
+    public void setMinClusterSize(int minClusterSize) {
+        this.minClusterSize = minClusterSize;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setNrOfThreads(int nrOfThreads) {
+        if (nrOfThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1: " + nrOfThreads);
+        }
+        this.nrOfThreads = nrOfThreads;
+    }
+
+    /**
+     * Combine the similarities with the similarities of the posting-time
+     * profiles, as compareAliases does. A null profile means that no post times
+     * are known for that alias.
+     *
+     * @param timeProfiles
+     * @param timeProfileWeight
+     */
+    public void setTimeProfiles(float[][] timeProfiles, float timeProfileWeight) {
+        this.timeProfiles = timeProfiles;
+        this.timeProfileWeight = timeProfileWeight;
+    }
+
+    public int getNrOfEdges() {
+        return edgeFrom == null ? 0 : edgeFrom.length;
+    }
+
+    /**
+     * @return the number of similarities calculated by the last run
+     */
+    public long getNrOfComparisons() {
+        return nrOfComparisons;
+    }
+
+    /**
+     * Build the similarity graph and find its clusters
+     *
+     * @param vectors standardized feature vectors
+     * @return the clusters with at least minClusterSize members, largest first
+     */
+    public List<Cluster> run(float[][] vectors) {
+        ExecutorService executor = Executors.newFixedThreadPool(nrOfThreads);
+        try {
+            TopKHeap[] neighbors = findNeighbors(vectors, executor);
+            buildEdges(neighbors);
+            int[] roots = unionFind(vectors.length, executor);
+            return collectClusters(roots);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private TopKHeap[] findNeighbors(final float[][] vectors, ExecutorService executor) {
+        final int n = vectors.length;
+        final int nrOfFeatures = n == 0 ? 0 : vectors[0].length;
+        final float[] planes = new float[nrOfTables * nrOfBits * nrOfFeatures];
+        Random random = new Random(seed);
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = (float) random.nextGaussian();
+        }
+        final TopKHeap[] neighbors = new TopKHeap[n];
+        for (int a = 0; a < n; a++) {
+            neighbors[a] = new TopKHeap(k);
+        }
+        final int chunk = Math.max(1, (n + nrOfThreads * 4 - 1) / (nrOfThreads * 4));
+        long comparisons = 0;
+
+        for (int table = 0; table < nrOfTables; table++) {
+            // Keys are the signature in the high half and the alias in the low half
+            final long[] keys = new long[n];
+            final int planeOffset = table * nrOfBits * nrOfFeatures;
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int start = 0; start < n; start += chunk) {
+                final int from = start;
+                tasks.add(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        for (int a = from; a < Math.min(from + chunk, n); a++) {
+                            keys[a] = ((long) signature(vectors[a], planes, planeOffset) << 32) | a;
+                        }
+                        return 0L;
+                    }
+                });
+            }
+            invokeAll(executor, tasks);
+            Arrays.sort(keys);
+
+            // Split the sorted keys at bucket boundaries and score the buckets in parallel
+            tasks.clear();
+            int start = 0;
+            while (start < n) {
+                int end = Math.min(start + chunk, n);
+                while (end < n && (keys[end] >>> 32) == (keys[end - 1] >>> 32)) {
+                    end++;
+                }
+                final int from = start;
+                final int to = end;
+                tasks.add(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return scoreBuckets(vectors, keys, from, to, neighbors);
+                    }
+                });
+                start = end;
+            }
+            for (Long count : invokeAll(executor, tasks)) {
+                comparisons += count;
+            }
+        }
+        nrOfComparisons = comparisons;
+        return neighbors;
+    }
+
+    private int signature(float[] vector, float[] planes, int offset) {
+        int d = vector.length;
+        int signature = 0;
+        for (int b = 0; b < nrOfBits; b++) {
+            int plane = offset + b * d;
+            float dot = 0.0f;
+            for (int i = 0; i < d; i++) {
+                if (!Float.isNaN(vector[i])) {
+                    dot += vector[i] * planes[plane + i];
+                }
+            }
+            if (dot >= 0.0f) {
+                signature |= 1 << b;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Compare the aliases within each bucket of keys[from, to), which starts
+     * and ends at bucket boundaries
+     */
+    private long scoreBuckets(float[][] vectors, long[] keys, int from, int to, TopKHeap[] neighbors) {
+        long count = 0;
+        int bucketStart = from;
+        while (bucketStart < to) {
+            int bucketEnd = bucketStart + 1;
+            while (bucketEnd < to && (keys[bucketEnd] >>> 32) == (keys[bucketStart] >>> 32)) {
+                bucketEnd++;
+            }
+            for (int p = bucketStart; p < bucketEnd; p++) {
+                int a = (int) keys[p];
+                for (int q = p + 1; q < Math.min(bucketEnd, p + 1 + maxBucketSize); q++) {
+                    int b = (int) keys[q];
+                    double featureSim = StylometricAnalysisMain.calculateSimilarity(vectors[a], vectors[b], 0, vectors[a].length);
+                    float similarity = (float) (timeProfiles == null ? featureSim
+                            : StylometricAnalysisMain.combineWithTimeProfiles(featureSim, timeProfiles[a], timeProfiles[b], timeProfileWeight));
+                    count++;
+                    if (similarity >= threshold) {
+                        offerNeighbor(neighbors[a], b, similarity);
+                        offerNeighbor(neighbors[b], a, similarity);
+                    }
+                }
+            }
+            bucketStart = bucketEnd;
+        }
+        return count;
+    }
+
+    // The same pair can share a bucket in several tables
+    private static void offerNeighbor(TopKHeap heap, int neighbor, float similarity) {
+        synchronized (heap) {
+            if (!heap.contains(neighbor)) {
+                heap.offer(neighbor, similarity);
+            }
+        }
+    }
+
+    /**
+     * Turn the neighbor lists into undirected edges, each stored once
+     */
+    private void buildEdges(TopKHeap[] neighbors) {
+        int n = neighbors.length;
+        int[] counts = new int[n];
+        int[] ids = new int[n * k];
+        float[] scores = new float[n * k];
+        int[] heapIds = new int[k];
+        float[] heapScores = new float[k];
+        for (int a = 0; a < n; a++) {
+            counts[a] = neighbors[a].size();
+            neighbors[a].drainDescending(heapIds, heapScores);
+            System.arraycopy(heapIds, 0, ids, a * k, counts[a]);
+            System.arraycopy(heapScores, 0, scores, a * k, counts[a]);
+            neighbors[a] = null;
+        }
+        int[] from = new int[ids.length];
+        int[] to = new int[ids.length];
+        float[] similarities = new float[ids.length];
+        int m = 0;
+        for (int a = 0; a < n; a++) {
+            for (int i = a * k; i < a * k + counts[a]; i++) {
+                int b = ids[i];
+                // When both list each other, only the smaller index keeps the edge
+                if (a < b || !contains(ids, b * k, counts[b], a)) {
+                    from[m] = a;
+                    to[m] = b;
+                    similarities[m] = scores[i];
+                    m++;
+                }
+            }
+        }
+        edgeFrom = Arrays.copyOf(from, m);
+        edgeTo = Arrays.copyOf(to, m);
+        edgeSimilarities = Arrays.copyOf(similarities, m);
+    }
+
+    private static boolean contains(int[] values, int offset, int length, int value) {
+        for (int i = offset; i < offset + length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parallel union-find over the edges. Roots are linked by compare-and-set,
+     * always from the larger index to the smaller, so no locks are needed.
+     *
+     * @return the root of every alias
+     */
+    private int[] unionFind(final int n, ExecutorService executor) {
+        final AtomicIntegerArray parents = new AtomicIntegerArray(n);
+        for (int a = 0; a < n; a++) {
+            parents.set(a, a);
+        }
+        final int m = edgeFrom.length;
+        final int chunk = Math.max(1, (m + nrOfThreads * 4 - 1) / (nrOfThreads * 4));
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (int start = 0; start < m; start += chunk) {
+            final int from = start;
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    for (int e = from; e < Math.min(from + chunk, m); e++) {
+                        union(parents, edgeFrom[e], edgeTo[e]);
+                    }
+                    return 0L;
+                }
+            });
+        }
+        invokeAll(executor, tasks);
+        int[] roots = new int[n];
+        for (int a = 0; a < n; a++) {
+            roots[a] = find(parents, a);
+        }
+        return roots;
+    }
+
+    static int find(AtomicIntegerArray parents, int a) {
+        int parent = parents.get(a);
+        while (parent != a) {
+            // Path halving; losing the race only leaves a longer path
+            int grandParent = parents.get(parent);
+            parents.compareAndSet(a, parent, grandParent);
+            a = grandParent;
+            parent = parents.get(a);
+        }
+        return a;
+    }
+
+    static void union(AtomicIntegerArray parents, int a, int b) {
+        while (true) {
+            a = find(parents, a);
+            b = find(parents, b);
+            if (a == b) {
+                return;
+            }
+            if (a < b) {
+                int tmp = a;
+                a = b;
+                b = tmp;
+            }
+            if (parents.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+
+    private List<Cluster> collectClusters(int[] roots) {
+        int n = roots.length;
+        int[] sizes = new int[n];
+        for (int a = 0; a < n; a++) {
+            sizes[roots[a]]++;
+        }
+        double[] similaritySums = new double[n];
+        int[] edgeCounts = new int[n];
+        for (int e = 0; e < edgeFrom.length; e++) {
+            int root = roots[edgeFrom[e]];
+            similaritySums[root] += edgeSimilarities[e];
+            edgeCounts[root]++;
+        }
+        int[][] members = new int[n][];
+        int[] filled = new int[n];
+        List<Cluster> clusters = new ArrayList<>();
+        for (int a = 0; a < n; a++) {
+            int root = roots[a];
+            if (sizes[root] < Math.max(1, minClusterSize)) {
+                continue;
+            }
+            if (members[root] == null) {
+                members[root] = new int[sizes[root]];
+            }
+            members[root][filled[root]++] = a;
+            if (filled[root] == sizes[root]) {
+                double cohesion = edgeCounts[root] == 0 ? 1.0 : similaritySums[root] / edgeCounts[root];
+                clusters.add(new Cluster(members[root], edgeCounts[root], cohesion));
+                members[root] = null;
+            }
+        }
+        Collections.sort(clusters, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster c1, Cluster c2) {
+                if (c1.members.length != c2.members.length) {
+                    return c1.members.length > c2.members.length ? -1 : 1;
+                }
+                return Double.compare(c2.cohesion, c1.cohesion);
+            }
+        });
+        return clusters;
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Write one line per cluster: size, cohesion, number of edges and the
+     * comma separated alias IDs
+     *
+     * @param clusters
+     * @param ids
+     * @param file
+     * @throws IOException
+     */
+    public static void writeClusters(List<Cluster> clusters, String[] ids, File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Cluster cluster : clusters) {
+                StringBuilder line = new StringBuilder();
+                line.append(cluster.members.length).append('\t')
+                        .append(String.format("%.4f", cluster.cohesion)).append('\t')
+                        .append(cluster.nrOfEdges).append('\t');
+                for (int i = 0; i < cluster.members.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(ids[cluster.members[i]]);
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Usage: aliasDir|features.bin outputFile threshold [k] [tables] [bits]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: aliasDir|features.bin outputFile threshold [k] [tables] [bits]");
+            System.exit(2);
+        }
+        try {
+            int k = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int tables = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+            int bits = args.length > 5 ? Integer.parseInt(args[5]) : 12;
+            AliasClustering clustering = new AliasClustering(tables, bits, k, Float.parseFloat(args[2]));
+            String[] ids;
+            float[][] vectors;
+            if (args[0].endsWith(".bin")) {
+                FeatureMatrixFile matrix = FeatureMatrixFile.read(new File(args[0]));
+                ids = matrix.getIds();
+                vectors = matrix.getVectors();
+            } else {
+                StylometricAnalysisMain stylo = new StylometricAnalysisMain();
+                stylo.setAliases(new IOReadWrite().convertTxtFilesToAliasObjs(args[0], IOProperties.USER_FILE_EXTENSION));
+                stylo.createFeatureVectors();
+                ids = new String[stylo.getAliases().size()];
+                vectors = new float[ids.length][];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = stylo.getAliases().get(i).getUserID();
+                    vectors[i] = stylo.getAliases().get(i).getFeatureArray();
+                }
+            }
+            long start = System.nanoTime();
+            List<Cluster> clusters = clustering.run(vectors);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            writeClusters(clusters, ids, new File(args[1]));
+            System.out.println(clusters.size() + " clusters from " + clustering.getNrOfEdges() + " edges and "
+                    + clustering.getNrOfComparisons() + " comparisons in " + elapsed + " ms");
+        } catch (IOException ex) {
+            Logger.getLogger(AliasClustering.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.ArchiveReader;
+import com.test.IOHandler.FeatureMatrixFile;
+import com.test.IOHandler.IOReadWrite;
+import com.test.IOHandler.PostRecordHandler;
+import com.test.model.Alias;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns a stream of posts into per-alias feature vectors without keeping the
+ * posts. Each post is run through feature extraction as it arrives and added to
+ * the running feature sums of its alias, whose posting-time histograms are
+ * updated at the same time. Used with ArchiveReader to go straight from
+ * compressed archives to feature vectors.
+ *
+ * Some features are undefined (NaN) for some posts, e.g. the character
+ * frequencies of an empty post. Such values are left out, and each feature is
+ * averaged over the posts where it is defined.
+ *
+ * @author ITE
+ */
+public class AliasFeatureAccumulator implements PostRecordHandler {
+
+    private final StylometricAnalysisMain stylo;
+    private final Map<String, Sums> sums;
+    private final Calendar calendar;
+
+    /**
+     * The running sums of one alias
+     */
+    private static class Sums {
+
+        final Alias alias;
+        final double[] features;
+        final int[] counts;			// Number of posts where the feature is defined
+        int nrOfPosts;
+
+        Sums(String aliasId, int nrOfFeatures) {
+            alias = new Alias();
+            alias.setUserID(aliasId);
+            alias.setPosts(new ArrayList<String>());
+            features = new double[nrOfFeatures];
+            counts = new int[nrOfFeatures];
+        }
+    }
+
+    public AliasFeatureAccumulator(StylometricAnalysisMain stylo) {
+        this.stylo = stylo;
+        this.sums = new LinkedHashMap<>();
+        this.calendar = Calendar.getInstance();
+    }
+
+    @Override
+    public void handlePost(String aliasId, String time, String post) {
+        Sums aliasSums = sums.get(aliasId);
+        if (aliasSums == null) {
+            aliasSums = new Sums(aliasId, stylo.getNrOfFeatures());
+            sums.put(aliasId, aliasSums);
+        }
+        float[] postFeatures = stylo.extractPostFeatures(post);
+        for (int i = 0; i < postFeatures.length; i++) {
+            if (!Float.isNaN(postFeatures[i])) {
+                aliasSums.features[i] += postFeatures[i];
+                aliasSums.counts[i]++;
+            }
+        }
+        aliasSums.nrOfPosts++;
+        if (time != null) {
+            addPostTime(aliasSums.alias, time);
+        }
+    }
+
+    /**
+     * Update the time histograms from either HH:mm:ss or a date and time on the
+     * form yyyy-MM-dd HH:mm:ss (or with a T between date and time). Nothing is
+     * recorded unless the hour is valid, so that the day of week is only
+     * counted for timed posts.
+     */
+    private void addPostTime(Alias alias, String time) {
+        String timeOfDay = time;
+        int day = -1;
+        if (time.length() >= 19 && (time.charAt(10) == 'T' || time.charAt(10) == ' ')) {
+            try {
+                calendar.clear();
+                calendar.set(Integer.parseInt(time.substring(0, 4)), Integer.parseInt(time.substring(5, 7)) - 1,
+                        Integer.parseInt(time.substring(8, 10)));
+                day = calendar.get(Calendar.DAY_OF_WEEK);
+            } catch (NumberFormatException ex) {
+                return;
+            }
+            timeOfDay = time.substring(11, 19);
+        }
+        if (timeOfDay.length() < 2 || !Character.isDigit(timeOfDay.charAt(0)) || !Character.isDigit(timeOfDay.charAt(1))) {
+            return;
+        }
+        int hour = IOReadWrite.parseHourOfDay(timeOfDay);
+        if (hour >= Alias.HOURS_PER_DAY) {
+            return;
+        }
+        alias.addPostHour(hour);
+        if (day >= 0) {
+            alias.addPostDay(day);
+        }
+    }
+
+    public int getNrOfAliases() {
+        return sums.size();
+    }
+
+    /**
+     * The aliases in the order they were first seen, with their time
+     * histograms and their averaged (unnormalized) feature vectors. A feature
+     * that is undefined for all posts of an alias is NaN.
+     *
+     * @return
+     */
+    public List<Alias> getAliases() {
+        List<Alias> aliasList = new ArrayList<>(sums.size());
+        for (Sums aliasSums : sums.values()) {
+            List<Float> featureVector = new ArrayList<>(aliasSums.features.length);
+            for (int i = 0; i < aliasSums.features.length; i++) {
+                featureVector.add(aliasSums.counts[i] == 0 ? Float.NaN : (float) (aliasSums.features[i] / aliasSums.counts[i]));
+            }
+            aliasSums.alias.setFeatureVector(featureVector);
+            aliasSums.alias.setNrOfPosts(aliasSums.nrOfPosts);
+            aliasList.add(aliasSums.alias);
+        }
+        return aliasList;
+    }
+
+    /**
+     * Write the standardized feature vectors of all aliases to a feature
+     * matrix file, as used by ShardedAllPairsJob and StreamingAllPairs
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeFeatureMatrix(File file) throws IOException {
+        List<Alias> aliasList = getAliases();
+        String[] ids = new String[aliasList.size()];
+        float[][] vectors = new float[aliasList.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = aliasList.get(i).getUserID();
+            vectors[i] = aliasList.get(i).getFeatureArray();
+        }
+        if (vectors.length > 0) {
+            NormalizationModel model = NormalizationModel.fit(vectors);
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = model.apply(vectors[i]);
+            }
+        }
+        new FeatureMatrixFile(ids, vectors).write(file);
+    }
+
+    /**
+     * Usage: outputFile archive... Reads tar or JSONL archives (optionally
+     * gzipped) and writes the standardized feature vectors of all aliases
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: features.bin archive...");
+            System.exit(2);
+        }
+        try {
+            AliasFeatureAccumulator accumulator = new AliasFeatureAccumulator(new StylometricAnalysisMain());
+            ArchiveReader reader = new ArchiveReader();
+            for (int i = 1; i < args.length; i++) {
+                reader.read(new File(args[i]), accumulator);
+            }
+            accumulator.writeFeatureMatrix(new File(args[0]));
+            System.out.println(accumulator.getNrOfAliases() + " aliases written to " + args[0]);
+        } catch (IOException ex) {
+            Logger.getLogger(AliasFeatureAccumulator.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+    }
+}
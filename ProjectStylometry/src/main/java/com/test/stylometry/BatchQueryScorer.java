@@ -0,0 +1,259 @@
+package com.test.stylometry;
+
+import com.test.model.Alias;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scores a block of queries against all reference aliases at once. The
+ * references are standardized with a NormalizationModel (by default fitted on
+ * them) and scaled to unit length, and are stored as one row-major matrix; queries are
+ * prepared in the same way, so the cosine similarities of a whole query block
+ * are the entries of a matrix product. The product is computed in tiles of
+ * QUERY_TILE queries times REFERENCE_TILE references, so that a tile of the
+ * reference matrix stays in cache while it is reused by all queries in the
+ * tile, and each reference row is loaded once for four queries at a time.
+ *
+ * Missing (NaN) features count as 0, which is a slight difference from
+ * calculateSimilarity where they are left out of the norms.
+ *
+ * @author ITE
+ */
+public class BatchQueryScorer {
+
+    private static final int QUERY_TILE = 16;
+    private static final int REFERENCE_TILE = 64;
+
+    private final String[] ids;
+    private final NormalizationModel model;
+    private final int nrOfFeatures;
+    private final float[] references;		// Unit length rows, one per alias
+    private ExecutorService executor;
+
+    /**
+     * @param ids the reference alias IDs
+     * @param vectors the unnormalized reference feature vectors
+     */
+    public BatchQueryScorer(String[] ids, float[][] vectors) {
+        this(ids, vectors, NormalizationModel.fit(vectors));
+    }
+
+    /**
+     * @param ids the reference alias IDs
+     * @param vectors the unnormalized reference feature vectors
+     * @param model the normalization applied to references and queries
+     */
+    public BatchQueryScorer(String[] ids, float[][] vectors, NormalizationModel model) {
+        this.ids = ids;
+        this.model = model;
+        this.nrOfFeatures = model.getNrOfFeatures();
+        this.references = new float[ids.length * nrOfFeatures];
+        for (int i = 0; i < ids.length; i++) {
+            prepare(vectors[i], references, i * nrOfFeatures);
+        }
+    }
+
+    /**
+     * Extract the (unnormalized) feature vectors of the aliases and use them as
+     * references
+     *
+     * @param stylo
+     * @param aliasList
+     * @return
+     */
+    public static BatchQueryScorer fromAliases(StylometricAnalysisMain stylo, List<Alias> aliasList) {
+        String[] ids = new String[aliasList.size()];
+        float[][] vectors = new float[aliasList.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = aliasList.get(i).getUserID();
+            vectors[i] = stylo.extractFeatures(aliasList.get(i).getPosts());
+        }
+        return new BatchQueryScorer(ids, vectors);
+    }
+
+    /**
+     * Score query tiles in parallel on the executor (null scores on the calling
+     * thread)
+     *
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public NormalizationModel getNormalizationModel() {
+        return model;
+    }
+
+    public int getNrOfReferences() {
+        return ids.length;
+    }
+
+    public String getId(int reference) {
+        return ids[reference];
+    }
+
+    // Standardize and scale to unit length into the destination row
+    private void prepare(float[] vector, float[] destination, int offset) {
+        float[] standardized = model.apply(vector);
+        double norm = 0.0;
+        for (int i = 0; i < nrOfFeatures; i++) {
+            if (Float.isNaN(standardized[i])) {
+                standardized[i] = 0.0f;
+            }
+            norm += standardized[i] * standardized[i];
+        }
+        float scale = norm > 0.0 ? (float) (1.0 / Math.sqrt(norm)) : 0.0f;
+        for (int i = 0; i < nrOfFeatures; i++) {
+            destination[offset + i] = standardized[i] * scale;
+        }
+    }
+
+    /**
+     * The k most similar references for each query
+     */
+    public static class Result {
+
+        private final int[][] matches;
+        private final float[][] similarities;
+
+        Result(int nrOfQueries, int k) {
+            matches = new int[nrOfQueries][k];
+            similarities = new float[nrOfQueries][k];
+        }
+
+        /**
+         * @param query
+         * @return the reference indexes, most similar first
+         */
+        public int[] getMatches(int query) {
+            return matches[query];
+        }
+
+        public float[] getSimilarities(int query) {
+            return similarities[query];
+        }
+    }
+
+    /**
+     * Extract and score a block of anonymous texts, each treated as one post
+     *
+     * @param stylo
+     * @param texts
+     * @param k
+     * @return
+     */
+    public Result scoreTexts(StylometricAnalysisMain stylo, List<String> texts, int k) {
+        float[][] vectors = new float[texts.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = stylo.extractPostFeatures(texts.get(i));
+        }
+        return scoreVectors(vectors, k);
+    }
+
+    /**
+     * Score a block of unnormalized query vectors
+     *
+     * @param vectors
+     * @param k
+     * @return
+     */
+    public Result scoreVectors(float[][] vectors, int k) {
+        final int nrOfQueries = vectors.length;
+        final int kept = Math.min(k, ids.length);
+        final float[] queries = new float[nrOfQueries * nrOfFeatures];
+        for (int q = 0; q < nrOfQueries; q++) {
+            prepare(vectors[q], queries, q * nrOfFeatures);
+        }
+        final Result result = new Result(nrOfQueries, kept);
+        if (kept == 0) {
+            return result;
+        }
+        if (executor == null) {
+            for (int start = 0; start < nrOfQueries; start += QUERY_TILE) {
+                scoreQueryTile(queries, start, Math.min(start + QUERY_TILE, nrOfQueries), kept, result);
+            }
+            return result;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < nrOfQueries; start += QUERY_TILE) {
+            final int from = start;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    scoreQueryTile(queries, from, Math.min(from + QUERY_TILE, nrOfQueries), kept, result);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Multiply the queries [from, to) with every tile of the reference matrix
+     * and keep the top k of each query
+     */
+    private void scoreQueryTile(float[] queries, int from, int to, int k, Result result) {
+        int nrOfReferences = ids.length;
+        int d = nrOfFeatures;
+        TopKHeap[] heaps = new TopKHeap[to - from];
+        for (int q = 0; q < heaps.length; q++) {
+            heaps[q] = new TopKHeap(k);
+        }
+        for (int rStart = 0; rStart < nrOfReferences; rStart += REFERENCE_TILE) {
+            int rEnd = Math.min(rStart + REFERENCE_TILE, nrOfReferences);
+            int q = from;
+            // Four queries at a time share each load of a reference row
+            for (; q + 3 < to; q += 4) {
+                int q0 = q * d;
+                int q1 = q0 + d;
+                int q2 = q1 + d;
+                int q3 = q2 + d;
+                for (int r = rStart; r < rEnd; r++) {
+                    int row = r * d;
+                    float acc0 = 0.0f;
+                    float acc1 = 0.0f;
+                    float acc2 = 0.0f;
+                    float acc3 = 0.0f;
+                    for (int i = 0; i < d; i++) {
+                        float ref = references[row + i];
+                        acc0 += queries[q0 + i] * ref;
+                        acc1 += queries[q1 + i] * ref;
+                        acc2 += queries[q2 + i] * ref;
+                        acc3 += queries[q3 + i] * ref;
+                    }
+                    heaps[q - from].offer(r, acc0);
+                    heaps[q + 1 - from].offer(r, acc1);
+                    heaps[q + 2 - from].offer(r, acc2);
+                    heaps[q + 3 - from].offer(r, acc3);
+                }
+            }
+            for (; q < to; q++) {
+                int q0 = q * d;
+                for (int r = rStart; r < rEnd; r++) {
+                    int row = r * d;
+                    float acc = 0.0f;
+                    for (int i = 0; i < d; i++) {
+                        acc += queries[q0 + i] * references[row + i];
+                    }
+                    heaps[q - from].offer(r, acc);
+                }
+            }
+        }
+        for (int q = from; q < to; q++) {
+            heaps[q - from].drainDescending(result.matches[q], result.similarities[q]);
+        }
+    }
+}
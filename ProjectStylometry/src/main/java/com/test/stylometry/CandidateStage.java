@@ -0,0 +1,21 @@
+package com.test.stylometry;
+
+import com.test.model.Alias;
+
+/**
+ * A cheap test deciding whether a candidate alias is worth a full stylometric
+ * comparison with a query alias. Used as a stage in a MatchingCascade.
+ *
+ * @author ITE
+ */
+public interface CandidateStage {
+
+    String getName();
+
+    /**
+     * @param query
+     * @param candidate
+     * @return false if the candidate can be pruned
+     */
+    boolean accept(Alias query, Alias candidate);
+}
@@ -0,0 +1,285 @@
+package com.test.stylometry;
+
+import com.test.model.Alias;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An alias similarity index that can be queried while aliases are being
+ * added. The index is a chain of immutable snapshots: each holds a list of
+ * immutable segments of unnormalized feature vectors together with the
+ * normalization model (mean and standard deviation per feature) of exactly the
+ * aliases in those segments. Writers build a new snapshot next to the current
+ * one and publish it with a single atomic reference swap, so queries never
+ * block and each query sees one consistent set of aliases and normalization.
+ *
+ * Vectors are standardized on the fly while scoring, so publishing does not
+ * rewrite existing vectors. The normalization statistics are kept up to date
+ * incrementally (Welford's algorithm) per feature, leaving out missing (NaN)
+ * values so that they cannot spoil the statistics, and segments are merged in a binary
+ * counter fashion so that a snapshot has O(log n) segments.
+ *
+ * Writers are serialized among themselves; readers take no locks.
+ *
+ * @author ITE
+ */
+public class ConcurrentAliasIndex {
+
+    private final int nrOfFeatures;
+    private final AtomicReference<Snapshot> current;
+
+    // Writer state, guarded by this
+    private final long[] counts;			// Number of non-NaN values per feature
+    private final double[] means;
+    private final double[] m2;
+
+    /**
+     * An immutable block of aliases
+     */
+    private static class Segment {
+
+        final String[] ids;
+        final float[] vectors;			// Row-major, unnormalized
+
+        Segment(String[] ids, float[] vectors) {
+            this.ids = ids;
+            this.vectors = vectors;
+        }
+
+        static Segment merge(Segment s1, Segment s2) {
+            String[] ids = Arrays.copyOf(s1.ids, s1.ids.length + s2.ids.length);
+            System.arraycopy(s2.ids, 0, ids, s1.ids.length, s2.ids.length);
+            float[] vectors = Arrays.copyOf(s1.vectors, s1.vectors.length + s2.vectors.length);
+            System.arraycopy(s2.vectors, 0, vectors, s1.vectors.length, s2.vectors.length);
+            return new Segment(ids, vectors);
+        }
+    }
+
+    /**
+     * The best matches of a query, together with the version of the snapshot
+     * they were computed from
+     */
+    public static class Matches {
+
+        private final String[] ids;
+        private final float[] similarities;
+        private final long version;
+
+        Matches(String[] ids, float[] similarities, long version) {
+            this.ids = ids;
+            this.similarities = similarities;
+            this.version = version;
+        }
+
+        public String[] getIds() {
+            return ids;
+        }
+
+        public float[] getSimilarities() {
+            return similarities;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * A consistent, immutable view of the index
+     */
+    public static class Snapshot {
+
+        private final long version;
+        private final Segment[] segments;
+        private final int size;
+        private final int nrOfFeatures;
+        private final NormalizationModel model;
+        private final float[] avgs;
+        private final float[] invStds;		// 0 for features without variation
+
+        Snapshot(long version, Segment[] segments, int nrOfFeatures, NormalizationModel model) {
+            this.version = version;
+            this.segments = segments;
+            this.nrOfFeatures = nrOfFeatures;
+            this.model = model;
+            int n = 0;
+            for (Segment segment : segments) {
+                n += segment.ids.length;
+            }
+            this.size = n;
+            avgs = new float[nrOfFeatures];
+            invStds = new float[nrOfFeatures];
+            if (model != null) {
+                for (int i = 0; i < nrOfFeatures; i++) {
+                    avgs[i] = (float) model.getAvg(i);
+                    invStds[i] = model.getStd(i) == 0.0 ? 0.0f : (float) (1.0 / model.getStd(i));
+                }
+            }
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public NormalizationModel getNormalizationModel() {
+            return model;
+        }
+
+        /**
+         * Find the k aliases most similar to an unnormalized feature vector,
+         * standardizing everything with the model of this snapshot
+         *
+         * @param rawQuery
+         * @param k
+         * @return
+         */
+        public Matches findBestMatches(float[] rawQuery, int k) {
+            if (size == 0) {
+                return new Matches(new String[0], new float[0], version);
+            }
+            float[] query = model.apply(rawQuery);
+            TopKHeap heap = new TopKHeap(Math.min(k, size));
+            int base = 0;
+            for (Segment segment : segments) {
+                float[] vectors = segment.vectors;
+                for (int a = 0; a < segment.ids.length; a++) {
+                    int row = a * nrOfFeatures;
+                    float sum = 0.0f;
+                    float sum1 = 0.0f;
+                    float sum2 = 0.0f;
+                    for (int i = 0; i < nrOfFeatures; i++) {
+                        float v1 = query[i];
+                        float v2 = (vectors[row + i] - avgs[i]) * invStds[i];
+                        if ((!Float.isNaN(v1)) && (!Float.isNaN(v2))) {
+                            sum += v1 * v2;
+                            sum1 += v1 * v1;
+                            sum2 += v2 * v2;
+                        }
+                    }
+                    heap.offer(base + a, (float) StylometricAnalysisMain.cosine(sum, sum1, sum2));
+                }
+                base += segment.ids.length;
+            }
+            int[] matches = new int[heap.size()];
+            float[] similarities = new float[heap.size()];
+            heap.drainDescending(matches, similarities);
+            String[] ids = new String[matches.length];
+            for (int i = 0; i < matches.length; i++) {
+                ids[i] = getId(matches[i]);
+            }
+            return new Matches(ids, similarities, version);
+        }
+
+        /**
+         * @param index position in this snapshot
+         * @return
+         */
+        public String getId(int index) {
+            for (Segment segment : segments) {
+                if (index < segment.ids.length) {
+                    return segment.ids[index];
+                }
+                index -= segment.ids.length;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    public ConcurrentAliasIndex(int nrOfFeatures) {
+        this.nrOfFeatures = nrOfFeatures;
+        this.counts = new long[nrOfFeatures];
+        this.means = new double[nrOfFeatures];
+        this.m2 = new double[nrOfFeatures];
+        this.current = new AtomicReference<>(new Snapshot(0, new Segment[0], nrOfFeatures, null));
+    }
+
+    /**
+     * The current snapshot. Run all queries that must agree with each other
+     * against the same snapshot.
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    public Matches findBestMatches(float[] rawQuery, int k) {
+        return current.get().findBestMatches(rawQuery, k);
+    }
+
+    /**
+     * Add a batch of aliases and publish a new snapshot containing them. The
+     * whole batch is checked first, so a rejected batch changes nothing.
+     *
+     * @param ids
+     * @param rawVectors unnormalized feature vectors
+     * @return the version of the new snapshot
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    public synchronized long add(String[] ids, float[][] rawVectors) {
+        if (ids.length != rawVectors.length) {
+            throw new IllegalArgumentException(ids.length + " IDs but " + rawVectors.length + " vectors");
+        }
+        for (int a = 0; a < ids.length; a++) {
+            if (rawVectors[a].length != nrOfFeatures) {
+                throw new IllegalArgumentException("Expected " + nrOfFeatures + " features, got "
+                        + rawVectors[a].length + " for " + ids[a]);
+            }
+        }
+        float[] vectors = new float[ids.length * nrOfFeatures];
+        for (int a = 0; a < ids.length; a++) {
+            float[] vector = rawVectors[a];
+            System.arraycopy(vector, 0, vectors, a * nrOfFeatures, nrOfFeatures);
+            for (int i = 0; i < nrOfFeatures; i++) {
+                if (Float.isNaN(vector[i])) {
+                    continue;
+                }
+                counts[i]++;
+                double delta = vector[i] - means[i];
+                means[i] += delta / counts[i];
+                m2[i] += delta * (vector[i] - means[i]);
+            }
+        }
+        Snapshot old = current.get();
+        List<Segment> segments = new ArrayList<>(Arrays.asList(old.segments));
+        Segment segment = new Segment(Arrays.copyOf(ids, ids.length), vectors);
+        // Merge with the newest segments while they are not larger
+        while (!segments.isEmpty() && segments.get(segments.size() - 1).ids.length <= segment.ids.length) {
+            segment = Segment.merge(segments.remove(segments.size() - 1), segment);
+        }
+        segments.add(segment);
+
+        double[] avgs = Arrays.copyOf(means, nrOfFeatures);
+        double[] stds = new double[nrOfFeatures];
+        for (int i = 0; i < nrOfFeatures; i++) {
+            stds[i] = counts[i] == 0 ? 0.0 : Math.sqrt(m2[i] / counts[i]);
+        }
+        Snapshot snapshot = new Snapshot(old.version + 1, segments.toArray(new Segment[segments.size()]),
+                nrOfFeatures, new NormalizationModel(avgs, stds));
+        current.set(snapshot);
+        return snapshot.version;
+    }
+
+    /**
+     * Extract the feature vectors of the aliases and add them
+     *
+     * @param stylo
+     * @param aliasList
+     * @return the version of the new snapshot
+     */
+    public long add(StylometricAnalysisMain stylo, List<Alias> aliasList) {
+        String[] ids = new String[aliasList.size()];
+        float[][] vectors = new float[aliasList.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = aliasList.get(i).getUserID();
+            vectors[i] = stylo.extractFeatures(aliasList.get(i).getPosts());
+        }
+        return add(ids, vectors);
+    }
+}
@@ -0,0 +1,370 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.IOProperties;
+import com.test.IOHandler.IOReadWrite;
+import com.test.model.Alias;
+import com.test.model.AliasVectorView;
+import com.test.model.OffHeapAliasRegistry;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures what the faster matching options cost in accuracy. As in Narayanan
+ * et al., the posts of every alias are split into two halves: the first half
+ * becomes a known (reference) alias and the second half an anonymous query
+ * whose correct answer is the reference with the same ID. Each configuration
+ * then matches all queries against all references, and the top-1 and top-k
+ * accuracy are reported together with wall time, throughput and peak memory.
+ *
+ * Each configuration is first run warmupRuns times untimed, so that it does
+ * not pay for class loading and JIT compilation, and then timedRuns times. The
+ * wall time is the median of the timed runs. Heap is the peak over the timed
+ * runs; direct is the most direct-buffer memory that a timed run added to
+ * what was in use before it.
+ *
+ * Everything is driven by one properties file, for example:
+ *
+ * aliasDir=dataFiles
+ * k=5
+ * minPosts=2
+ * warmupRuns=3
+ * timedRuns=5
+ * configurations=exact,pruned,batch
+ * exact.mode=exact
+ * pruned.mode=cascade
+ * pruned.postCountRatio=4
+ * pruned.signatureThreshold=0.1
+ * batch.mode=batch
+ * batch.threads=4
+ *
+ * Modes: exact (compareAliases against every reference), cascade (exact with a
+ * MatchingCascade in front; options postCountRatio, timeThreshold and
+ * signatureThreshold add the corresponding stages), batch (BatchQueryScorer,
+ * option threads) and offheap (OffHeapAliasRegistry scan). The option
+ * timeWeight sets the time profile weight of the exact and cascade modes.
+ *
+ * @author ITE
+ */
+public class EvaluationHarness {
+
+    private final Properties config;
+    private final StylometricAnalysisMain stylo;
+    private final int k;
+    private final int warmupRuns;
+    private final int timedRuns;
+    private long peakDirectBytes;
+    private List<Alias> references;
+    private List<Alias> queries;
+    private float[][] rawReferences;
+    private float[][] rawQueries;
+    private NormalizationModel model;
+
+    public EvaluationHarness(Properties config, StylometricAnalysisMain stylo) {
+        this.config = config;
+        this.stylo = stylo;
+        this.k = Integer.parseInt(config.getProperty("k", "5"));
+        this.warmupRuns = Math.max(0, Integer.parseInt(config.getProperty("warmupRuns", "3")));
+        this.timedRuns = Math.max(1, Integer.parseInt(config.getProperty("timedRuns", "5")));
+    }
+
+    /**
+     * Split every alias with enough posts into a reference and a query, and
+     * extract and normalize their feature vectors
+     *
+     * @throws IOException
+     */
+    public void prepare() throws IOException {
+        String aliasDir = config.getProperty("aliasDir", IOProperties.INDIVIDUAL_USER_FILE_PATH);
+        int minPosts = Math.max(2, Integer.parseInt(config.getProperty("minPosts", "2")));
+        references = new ArrayList<>();
+        queries = new ArrayList<>();
+        for (Alias alias : new IOReadWrite().convertTxtFilesToAliasObjs(aliasDir, IOProperties.USER_FILE_EXTENSION)) {
+            int nrOfPosts = alias.getPosts().size();
+            if (nrOfPosts >= minPosts) {
+                references.add(splitAlias(alias, 0, nrOfPosts / 2));
+                queries.add(splitAlias(alias, nrOfPosts / 2, nrOfPosts));
+            }
+        }
+        if (references.size() < 2) {
+            throw new IOException("Need at least two aliases with " + minPosts + " posts in " + aliasDir);
+        }
+        rawReferences = extract(references);
+        rawQueries = extract(queries);
+
+        // Standardize over all halves, as createFeatureVectors does. Every mode
+        // uses this model, so that their accuracies are comparable.
+        float[][] all = new float[references.size() + queries.size()][];
+        System.arraycopy(rawReferences, 0, all, 0, references.size());
+        System.arraycopy(rawQueries, 0, all, references.size(), queries.size());
+        model = NormalizationModel.fit(all);
+        for (int i = 0; i < all.length; i++) {
+            Alias alias = i < references.size() ? references.get(i) : queries.get(i - references.size());
+            float[] normalized = model.apply(all[i]);
+            List<Float> featureVector = new ArrayList<>(normalized.length);
+            for (float value : normalized) {
+                featureVector.add(value);
+            }
+            alias.setFeatureVector(featureVector);
+        }
+    }
+
+    private static Alias splitAlias(Alias alias, int from, int to) {
+        Alias part = new Alias();
+        part.setUserID(alias.getUserID());
+        part.setPosts(new ArrayList<>(alias.getPosts().subList(from, to)));
+        List postTimes = alias.getPostTime();
+        part.setPostTime(new ArrayList<>(postTimes.subList(from, to)));
+        return part;
+    }
+
+    private float[][] extract(List<Alias> aliasList) {
+        float[][] vectors = new float[aliasList.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = stylo.extractFeatures(aliasList.get(i).getPosts());
+        }
+        return vectors;
+    }
+
+    /**
+     * Run one configuration
+     *
+     * @param name
+     * @return a line for the report table
+     */
+    public String evaluate(String name) {
+        String mode = config.getProperty(name + ".mode", "exact");
+        stylo.setTimeProfileWeight(Float.parseFloat(config.getProperty(name + ".timeWeight", "0")));
+        int[][] matches = new int[queries.size()][];
+        MatchingCascade cascade = null;
+        for (int run = 0; run < warmupRuns; run++) {
+            match(name, mode, matches);
+        }
+
+        settleDirectMemory();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long[] times = new long[timedRuns];
+        long directUsed = 0;
+        for (int run = 0; run < timedRuns; run++) {
+            long directBefore = settleDirectMemory();
+            peakDirectBytes = directBefore;
+            long start = System.nanoTime();
+            cascade = match(name, mode, matches);
+            times[run] = System.nanoTime() - start;
+            sampleDirectMemory();
+            directUsed = Math.max(directUsed, peakDirectBytes - directBefore);
+        }
+        Arrays.sort(times);
+        long elapsed = times[timedRuns / 2];
+
+        int top1 = 0;
+        int topK = 0;
+        for (int q = 0; q < matches.length; q++) {
+            for (int i = 0; i < matches[q].length; i++) {
+                if (matches[q][i] == q) {
+                    top1 += i == 0 ? 1 : 0;
+                    topK++;
+                }
+            }
+        }
+        double seconds = elapsed / 1e9;
+        String line = String.format("%-16s %-8s %8.3f %8.3f %10.1f %12.1f %10.1f %10.1f",
+                name, mode, top1 / (double) queries.size(), topK / (double) queries.size(),
+                seconds * 1000, queries.size() / seconds, peakHeapBytes() / 1048576.0, directUsed / 1048576.0);
+        if (cascade != null) {
+            line += System.lineSeparator() + cascade.getReport();
+        }
+        return line;
+    }
+
+    /**
+     * Match all queries once with the given mode
+     *
+     * @return the cascade used, if any, with the statistics of this run
+     */
+    private MatchingCascade match(String name, String mode, int[][] matches) {
+        MatchingCascade cascade = null;
+        switch (mode) {
+            case "exact":
+                matchExact(matches, null);
+                break;
+            case "cascade":
+                cascade = createCascade(name);
+                matchExact(matches, cascade);
+                break;
+            case "batch":
+                matchBatch(matches, Integer.parseInt(config.getProperty(name + ".threads", "1")));
+                break;
+            case "offheap":
+                matchOffHeap(matches);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode + " for " + name);
+        }
+        return cascade;
+    }
+
+    private MatchingCascade createCascade(String name) {
+        MatchingCascade cascade = new MatchingCascade();
+        if (config.getProperty(name + ".postCountRatio") != null) {
+            cascade.addStage(MatchingCascade.postCountStage(Double.parseDouble(config.getProperty(name + ".postCountRatio"))));
+        }
+        if (config.getProperty(name + ".timeThreshold") != null) {
+            cascade.addStage(MatchingCascade.timeProfileStage(Double.parseDouble(config.getProperty(name + ".timeThreshold"))));
+        }
+        if (config.getProperty(name + ".signatureThreshold") != null) {
+            cascade.addStage(MatchingCascade.signatureStage(stylo.getCharacterFeatureOffset(), stylo.getCharacterFeatureEnd(),
+                    Double.parseDouble(config.getProperty(name + ".signatureThreshold"))));
+        }
+        return cascade;
+    }
+
+    private void matchExact(int[][] matches, MatchingCascade cascade) {
+        TopKHeap heap = new TopKHeap(k);
+        float[] scores = new float[k];
+        for (int q = 0; q < queries.size(); q++) {
+            Alias query = queries.get(q);
+            for (int r = 0; r < references.size(); r++) {
+                if (cascade != null) {
+                    if (cascade.findRejectingStage(query, references.get(r)) >= 0) {
+                        continue;
+                    }
+                    cascade.recordFullComparison();
+                }
+                heap.offer(r, (float) stylo.compareAliases(query, references.get(r)));
+            }
+            matches[q] = new int[heap.size()];
+            heap.drainDescending(matches[q], scores);
+        }
+    }
+
+    private void matchBatch(int[][] matches, int nrOfThreads) {
+        String[] ids = new String[references.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = references.get(i).getUserID();
+        }
+        BatchQueryScorer scorer = new BatchQueryScorer(ids, rawReferences, model);
+        ExecutorService executor = nrOfThreads > 1 ? Executors.newFixedThreadPool(nrOfThreads) : null;
+        scorer.setExecutor(executor);
+        BatchQueryScorer.Result result = scorer.scoreVectors(rawQueries, k);
+        if (executor != null) {
+            executor.shutdown();
+        }
+        for (int q = 0; q < matches.length; q++) {
+            matches[q] = result.getMatches(q);
+        }
+    }
+
+    private void matchOffHeap(int[][] matches) {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(references.get(0).getFeatureArray().length);
+        for (Alias reference : references) {
+            registry.put(reference);
+        }
+        sampleDirectMemory();
+        AliasVectorView view = registry.newView();
+        TopKHeap heap = new TopKHeap(k);
+        float[] scores = new float[k];
+        for (int q = 0; q < queries.size(); q++) {
+            float[] query = queries.get(q).getFeatureArray();
+            for (int slot = 0; slot < registry.getHighWater(); slot++) {
+                heap.offer(slot, (float) StylometricAnalysisMain.calculateSimilarity(query, view.moveTo(slot)));
+            }
+            matches[q] = new int[heap.size()];
+            heap.drainDescending(matches[q], scores);
+        }
+        registry.clear();
+    }
+
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long directBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The buffer pool only reports current usage, so the peak is sampled at
+     * the points where a mode holds the most direct memory
+     */
+    private void sampleDirectMemory() {
+        peakDirectBytes = Math.max(peakDirectBytes, directBytes());
+    }
+
+    /**
+     * Collect garbage and wait (briefly) for the direct buffers dropped by
+     * earlier runs to be freed, which happens after the collection
+     *
+     * @return the direct memory still in use
+     */
+    private static long settleDirectMemory() {
+        System.gc();
+        long used = directBytes();
+        for (int i = 0; i < 20; i++) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long now = directBytes();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    public int getNrOfQueries() {
+        return queries.size();
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: configFile");
+            System.exit(2);
+        }
+        try {
+            Properties config = new Properties();
+            try (FileReader reader = new FileReader(args[0])) {
+                config.load(reader);
+            }
+            EvaluationHarness harness = new EvaluationHarness(config, new StylometricAnalysisMain());
+            harness.prepare();
+            System.out.println(harness.getNrOfQueries() + " aliases split into reference and query halves");
+            System.out.println(String.format("%-16s %-8s %8s %8s %10s %12s %10s %10s",
+                    "configuration", "mode", "top-1", "top-k", "wall ms", "queries/s", "heap MB", "direct MB"));
+            for (String name : config.getProperty("configurations", "exact").split(",")) {
+                System.out.println(harness.evaluate(name.trim()));
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            Logger.getLogger(EvaluationHarness.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+    }
+}
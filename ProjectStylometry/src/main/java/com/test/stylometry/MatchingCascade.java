@@ -0,0 +1,211 @@
+package com.test.stylometry;
+
+import com.test.model.Alias;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sequence of cheap candidate stages run before the full stylometric
+ * comparison. A candidate is compared in full only if it survives every
+ * stage, so with a selective first stage almost no candidates need the
+ * expensive scoring.
+ *
+ * The number of candidates seen and pruned by each stage is recorded. In
+ * audit mode the pruned candidates are scored in full anyway (which of course
+ * removes the speed-up) so that the recall lost by each stage can be reported:
+ * for best match searches a loss is a pruned candidate that would have been
+ * the best match, for all-pairs comparisons it is a pruned pair with a
+ * similarity at or above the audit threshold.
+ *
+ * @author ITE
+ */
+public class MatchingCascade {
+
+    private final List<CandidateStage> stages;
+    private long[] evaluated;
+    private long[] pruned;
+    private long[] lost;
+    private long fullComparisons;
+    private boolean audit;
+    private double auditThreshold;
+
+    public MatchingCascade() {
+        stages = new ArrayList<>();
+        resetStatistics();
+    }
+
+    public MatchingCascade addStage(CandidateStage stage) {
+        stages.add(stage);
+        resetStatistics();
+        return this;
+    }
+
+    public List<CandidateStage> getStages() {
+        return stages;
+    }
+
+    public boolean isAudit() {
+        return audit;
+    }
+
+    public double getAuditThreshold() {
+        return auditThreshold;
+    }
+
+    /**
+     * Turn on/off the recall audit
+     *
+     * @param audit
+     * @param auditThreshold similarity from which a pruned pair counts as lost
+     * in all-pairs comparisons
+     */
+    public void setAudit(boolean audit, double auditThreshold) {
+        this.audit = audit;
+        this.auditThreshold = auditThreshold;
+    }
+
+    /**
+     * Run the candidate through the stages
+     *
+     * @param query
+     * @param candidate
+     * @return the index of the stage that pruned the candidate, or -1 if it
+     * survived all stages
+     */
+    public int findRejectingStage(Alias query, Alias candidate) {
+        for (int i = 0; i < stages.size(); i++) {
+            evaluated[i]++;
+            if (!stages.get(i).accept(query, candidate)) {
+                pruned[i]++;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void recordFullComparison() {
+        fullComparisons++;
+    }
+
+    public void recordLost(int stage) {
+        lost[stage]++;
+    }
+
+    public long getEvaluated(int stage) {
+        return evaluated[stage];
+    }
+
+    public long getPruned(int stage) {
+        return pruned[stage];
+    }
+
+    public long getLost(int stage) {
+        return lost[stage];
+    }
+
+    public long getFullComparisons() {
+        return fullComparisons;
+    }
+
+    public final void resetStatistics() {
+        evaluated = new long[stages.size()];
+        pruned = new long[stages.size()];
+        lost = new long[stages.size()];
+        fullComparisons = 0;
+    }
+
+    /**
+     * A readable summary of the prune rate (and recall loss if audited) of
+     * each stage
+     *
+     * @return
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < stages.size(); i++) {
+            double rate = evaluated[i] == 0 ? 0.0 : 100.0 * pruned[i] / evaluated[i];
+            report.append("Stage ").append(stages.get(i).getName())
+                    .append(": ").append(evaluated[i]).append(" candidates, ")
+                    .append(pruned[i]).append(" pruned (")
+                    .append(String.format("%.1f", rate)).append("%)");
+            if (audit) {
+                report.append(", ").append(lost[i]).append(" matches lost");
+            }
+            report.append(System.lineSeparator());
+        }
+        report.append("Full comparisons: ").append(fullComparisons);
+        return report.toString();
+    }
+
+    /**
+     * Prune candidates whose number of posts differs too much from that of the
+     * query
+     *
+     * @param maxRatio largest allowed ratio between the post counts
+     * @return
+     */
+    public static CandidateStage postCountStage(final double maxRatio) {
+        return new CandidateStage() {
+            @Override
+            public String getName() {
+                return "post count";
+            }
+
+            @Override
+            public boolean accept(Alias query, Alias candidate) {
+                int n1 = query.getNrOfPosts();
+                int n2 = candidate.getNrOfPosts();
+                return Math.max(n1, n2) <= maxRatio * Math.min(n1, n2);
+            }
+        };
+    }
+
+    /**
+     * Prune candidates whose posting-time profile is too different from that of
+     * the query. Aliases without post times are never pruned.
+     *
+     * @param minSimilarity
+     * @return
+     */
+    public static CandidateStage timeProfileStage(final double minSimilarity) {
+        return new CandidateStage() {
+            @Override
+            public String getName() {
+                return "time profile";
+            }
+
+            @Override
+            public boolean accept(Alias query, Alias candidate) {
+                if (query.getNrOfTimedPosts() == 0 || candidate.getNrOfTimedPosts() == 0) {
+                    return true;
+                }
+                float[] profile1 = query.getTimeProfile();
+                float[] profile2 = candidate.getTimeProfile();
+                return StylometricAnalysisMain.calculateSimilarity(profile1, profile2, 0, profile1.length) >= minSimilarity;
+            }
+        };
+    }
+
+    /**
+     * Prune candidates using the cosine similarity over a bounded slice of the
+     * feature vectors, such as the letter and punctuation frequencies.
+     *
+     * @param from first feature of the signature
+     * @param to feature after the last feature of the signature
+     * @param minSimilarity
+     * @return
+     */
+    public static CandidateStage signatureStage(final int from, final int to, final double minSimilarity) {
+        return new CandidateStage() {
+            @Override
+            public String getName() {
+                return "signature [" + from + ", " + to + ")";
+            }
+
+            @Override
+            public boolean accept(Alias query, Alias candidate) {
+                return StylometricAnalysisMain.calculateSimilarity(query.getFeatureArray(), candidate.getFeatureArray(), from, to) >= minSimilarity;
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+package com.test.stylometry;
+
+/**
+ * The per-feature mean and standard deviation used to standardize feature
+ * vectors to mean 0 and variance 1, in the same way as
+ * StylometricAnalysisMain.normalizeFeatureVector. Keeping the model makes it
+ * possible to standardize new vectors against an existing set of aliases.
+ *
+ * @author ITE
+ */
+public class NormalizationModel {
+
+    private final double[] avgs;
+    private final double[] stds;
+
+    public NormalizationModel(double[] avgs, double[] stds) {
+        this.avgs = avgs;
+        this.stds = stds;
+    }
+
+    /**
+     * Calculate the mean and (population) standard deviation of each feature.
+     * Missing (NaN) values are left out of the statistics of their feature.
+     *
+     * @param vectors
+     * @return
+     */
+    public static NormalizationModel fit(float[][] vectors) {
+        int nrOfFeatures = vectors[0].length;
+        double[] avgs = new double[nrOfFeatures];
+        double[] stds = new double[nrOfFeatures];
+        int[] counts = new int[nrOfFeatures];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < nrOfFeatures; i++) {
+                if (!Float.isNaN(vector[i])) {
+                    avgs[i] += vector[i];
+                    counts[i]++;
+                }
+            }
+        }
+        for (int i = 0; i < nrOfFeatures; i++) {
+            avgs[i] = counts[i] == 0 ? 0.0 : avgs[i] / counts[i];
+        }
+        for (float[] vector : vectors) {
+            for (int i = 0; i < nrOfFeatures; i++) {
+                if (!Float.isNaN(vector[i])) {
+                    double diff = avgs[i] - vector[i];
+                    stds[i] += diff * diff;
+                }
+            }
+        }
+        for (int i = 0; i < nrOfFeatures; i++) {
+            stds[i] = counts[i] == 0 ? 0.0 : Math.sqrt(stds[i] / counts[i]);
+        }
+        return new NormalizationModel(avgs, stds);
+    }
+
+    /**
+     * Fits a model one vector at a time (Welford's algorithm), for sets of
+     * vectors too large to keep in memory. Missing (NaN) values are left out
+     * of the statistics of their feature.
+     */
+    public static class Accumulator {
+
+        private final long[] counts;
+        private final double[] means;
+        private final double[] m2;
+
+        public Accumulator(int nrOfFeatures) {
+            counts = new long[nrOfFeatures];
+            means = new double[nrOfFeatures];
+            m2 = new double[nrOfFeatures];
+        }
+
+        public void add(float[] vector) {
+            for (int i = 0; i < means.length; i++) {
+                if (Float.isNaN(vector[i])) {
+                    continue;
+                }
+                counts[i]++;
+                double delta = vector[i] - means[i];
+                means[i] += delta / counts[i];
+                m2[i] += delta * (vector[i] - means[i]);
+            }
+        }
+
+        /**
+         * @return the model of the vectors added so far
+         */
+        public NormalizationModel build() {
+            double[] avgs = new double[means.length];
+            double[] stds = new double[means.length];
+            for (int i = 0; i < means.length; i++) {
+                avgs[i] = means[i];
+                stds[i] = counts[i] == 0 ? 0.0 : Math.sqrt(m2[i] / counts[i]);
+            }
+            return new NormalizationModel(avgs, stds);
+        }
+    }
+
+    public int getNrOfFeatures() {
+        return avgs.length;
+    }
+
+    public double getAvg(int feature) {
+        return avgs[feature];
+    }
+
+    public double getStd(int feature) {
+        return stds[feature];
+    }
+
+    /**
+     * Standardize a feature vector. Features without variation, and missing
+     * (NaN) features, become 0, i.e. the mean.
+     *
+     * @param vector
+     * @return a new, standardized vector
+     */
+    public float[] apply(float[] vector) {
+        float[] result = new float[avgs.length];
+        for (int i = 0; i < avgs.length; i++) {
+            result[i] = stds[i] == 0.0 || Float.isNaN(vector[i]) ? 0.0f : (float) ((vector[i] - avgs[i]) / stds[i]);
+        }
+        return result;
+    }
+}
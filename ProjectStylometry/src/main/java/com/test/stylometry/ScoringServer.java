@@ -0,0 +1,273 @@
+package com.test.stylometry;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.test.IOHandler.IOProperties;
+import com.test.IOHandler.IOReadWrite;
+import com.test.model.Alias;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long-running HTTP server that keeps the function words, the alias index
+ * and its normalization model in memory, so that callers do not pay for
+ * reading the lexicon and the alias files on every call.
+ *
+ * All requests are POSTs with a UTF-8 body holding a batch of items, one per
+ * line. The posts of an item are separated by IOProperties.DATA_SEPERATOR, and
+ * the response has one line per item:
+ *
+ * /extract - item: posts, response: comma separated (unnormalized) features
+ * /score - item: posts of alias 1, a tab, posts of alias 2, response: the
+ * similarity, normalized as in returnStylo
+ * /topk?k=n - item: posts, response: the n most similar aliases in the index as
+ * space separated alias:similarity
+ *
+ * Requests are handled by a fixed pool of threads, and the items of a /topk
+ * request are scored together by a BatchQueryScorer.
+ *
+ * @author ITE
+ */
+public class ScoringServer {
+
+    private static final int DEFAULT_K = 5;
+
+    private final StylometricAnalysisMain stylo;
+    private BatchQueryScorer index;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ScoringServer(StylometricAnalysisMain stylo) {
+        this.stylo = stylo;
+    }
+
+    /**
+     * Build the alias index used by /topk from all user files in a directory
+     *
+     * @param aliasDir
+     * @throws IOException
+     */
+    public void loadAliases(String aliasDir) throws IOException {
+        List<Alias> aliasList = new IOReadWrite().convertTxtFilesToAliasObjs(aliasDir, IOProperties.USER_FILE_EXTENSION);
+        index = aliasList.isEmpty() ? null : BatchQueryScorer.fromAliases(stylo, aliasList);
+    }
+
+    public void start(int port, int nrOfThreads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/extract", new ItemHandler() {
+            @Override
+            String process(String item, HttpExchange exchange) {
+                return join(stylo.extractFeatures(splitPosts(item)), ",");
+            }
+        });
+        server.createContext("/score", new ItemHandler() {
+            @Override
+            String process(String item, HttpExchange exchange) {
+                int tab = item.indexOf('\t');
+                if (tab < 0) {
+                    throw new IllegalArgumentException("Expected two tab separated aliases");
+                }
+                return Double.toString(score(splitPosts(item.substring(0, tab)), splitPosts(item.substring(tab + 1))));
+            }
+        });
+        server.createContext("/topk", new BatchHandler() {
+            @Override
+            List<String> processBatch(List<String> items, HttpExchange exchange) {
+                return topK(items, parseK(exchange.getRequestURI().getQuery()));
+            }
+        });
+        executor = Executors.newFixedThreadPool(nrOfThreads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * The similarity between two aliases, normalized against each other just
+     * like returnStylo but without changing any shared state
+     *
+     * @param posts1
+     * @param posts2
+     * @return
+     */
+    public double score(List<String> posts1, List<String> posts2) {
+        float[][] vectors = {stylo.extractFeatures(posts1), stylo.extractFeatures(posts2)};
+        NormalizationModel pairModel = NormalizationModel.fit(vectors);
+        float[] vector1 = pairModel.apply(vectors[0]);
+        float[] vector2 = pairModel.apply(vectors[1]);
+        return StylometricAnalysisMain.calculateSimilarity(vector1, vector2, 0, vector1.length);
+    }
+
+    /**
+     * The k aliases in the index most similar to each item, scored as one
+     * block
+     *
+     * @param items
+     * @param k
+     * @return
+     */
+    public List<String> topK(List<String> items, int k) {
+        List<String> results = new ArrayList<>(items.size());
+        if (index == null) {
+            for (int i = 0; i < items.size(); i++) {
+                results.add("");
+            }
+            return results;
+        }
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        float[][] vectors = new float[items.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = stylo.extractFeatures(splitPosts(items.get(i)));
+        }
+        BatchQueryScorer.Result result = index.scoreVectors(vectors, k);
+        for (int q = 0; q < vectors.length; q++) {
+            int[] matches = result.getMatches(q);
+            float[] similarities = result.getSimilarities(q);
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < matches.length; i++) {
+                if (i > 0) {
+                    line.append(' ');
+                }
+                line.append(index.getId(matches[i])).append(':').append(similarities[i]);
+            }
+            results.add(line.toString());
+        }
+        return results;
+    }
+
+    /**
+     * The non-blank posts of an item; an item without any text is rejected,
+     * since all its features would be NaN
+     */
+    private static List<String> splitPosts(String item) {
+        List<String> posts = new ArrayList<>();
+        for (String post : item.split(IOProperties.DATA_SEPERATOR)) {
+            if (!post.trim().isEmpty()) {
+                posts.add(post);
+            }
+        }
+        if (posts.isEmpty()) {
+            throw new IllegalArgumentException("Empty text");
+        }
+        return posts;
+    }
+
+    private static int parseK(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("k=")) {
+                    return Integer.parseInt(param.substring(2));
+                }
+            }
+        }
+        return DEFAULT_K;
+    }
+
+    private static String join(float[] values, String separator) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                result.append(separator);
+            }
+            result.append(values[i]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Reads a batch of items, one per line, and answers with one line per item
+     */
+    private abstract static class BatchHandler implements HttpHandler {
+
+        abstract List<String> processBatch(List<String> items, HttpExchange exchange);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            StringBuilder response = new StringBuilder();
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    status = 405;
+                } else {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                    List<String> items = new ArrayList<>();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.trim().isEmpty()) {
+                            items.add(line);
+                        }
+                    }
+                    if (items.isEmpty()) {
+                        throw new IllegalArgumentException("Empty request body");
+                    }
+                    for (String result : processBatch(items, exchange)) {
+                        response.append(result).append('\n');
+                    }
+                }
+            } catch (IllegalArgumentException ex) {
+                status = 400;
+                response.setLength(0);
+                response.append(ex.getMessage()).append('\n');
+            }
+            byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * A batch handler that processes one item at a time
+     */
+    private abstract static class ItemHandler extends BatchHandler {
+
+        abstract String process(String item, HttpExchange exchange);
+
+        @Override
+        List<String> processBatch(List<String> items, HttpExchange exchange) {
+            List<String> results = new ArrayList<>(items.size());
+            for (String item : items) {
+                results.add(process(item, exchange));
+            }
+            return results;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: port [aliasDir] [nrOfThreads]");
+            System.exit(2);
+        }
+        try {
+            ScoringServer scoringServer = new ScoringServer(new StylometricAnalysisMain());
+            if (args.length > 1) {
+                scoringServer.loadAliases(args[1]);
+            }
+            int nrOfThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            scoringServer.start(Integer.parseInt(args[0]), nrOfThreads);
+            System.out.println("Listening on port " + args[0] + " with "
+                    + (scoringServer.index == null ? 0 : scoringServer.index.getNrOfReferences()) + " aliases");
+        } catch (IOException ex) {
+            Logger.getLogger(ScoringServer.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.FeatureMatrixFile;
+import com.test.IOHandler.IOProperties;
+import com.test.IOHandler.IOReadWrite;
+import com.test.model.Alias;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes the top-k most similar aliases for every alias by splitting the
+ * alias matrix into blocks and letting separate worker processes compare the
+ * block pairs. The processes are coordinated through a shared work directory:
+ *
+ * features.bin - the normalized feature vectors, extracted once. Workers only
+ * read the rows of the blocks they compare.
+ * job.properties - number of blocks and k
+ * block-i-j.lock - claimed by the worker currently comparing blocks i and j
+ * block-i-j.result - partial top-k lists, written atomically when done
+ *
+ * The result files act as checkpoints. When a round of workers has finished,
+ * any block pair with a lock but no result belongs to a failed worker and is
+ * handed out again, and a job that is restarted with the same work directory
+ * only computes the missing block pairs before merging.
+ *
+ * Usage:
+ * run aliasDir workDir nrOfBlocks nrOfWorkers k outputFile
+ * worker workDir
+ * merge workDir outputFile
+ *
+ * @author ITE
+ */
+public class ShardedAllPairsJob {
+
+    private static final String FEATURE_FILE = "features.bin";
+    private static final String JOB_FILE = "job.properties";
+    private static final int MAX_ROUNDS = 3;
+
+    private final File workDir;
+    private int nrOfBlocks;
+    private int k;
+
+    public ShardedAllPairsJob(File workDir) {
+        this.workDir = workDir;
+    }
+
+    /**
+     * Extract the feature vectors for all aliases in the directory and write
+     * the job description, unless this has already been done for the work
+     * directory. The aliases are read one at a time and their raw vectors
+     * written to a temporary file, which is standardized in a second pass, so
+     * only the IDs are kept in memory.
+     *
+     * @param aliasDir
+     * @param nrOfBlocks
+     * @param k
+     * @throws IOException
+     */
+    public void prepare(String aliasDir, int nrOfBlocks, int k) throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Could not create work directory " + workDir);
+        }
+        File jobFile = new File(workDir, JOB_FILE);
+        File featureFile = new File(workDir, FEATURE_FILE);
+        if (jobFile.exists() && featureFile.exists()) {
+            loadJob();
+            return;
+        }
+        IOReadWrite io = new IOReadWrite();
+        StylometricAnalysisMain stylo = new StylometricAnalysisMain();
+        NormalizationModel.Accumulator accumulator = new NormalizationModel.Accumulator(stylo.getNrOfFeatures());
+        File rawFile = new File(workDir, "raw-" + FEATURE_FILE);
+        try (FeatureMatrixFile.Writer writer = new FeatureMatrixFile.Writer(rawFile, stylo.getNrOfFeatures())) {
+            for (String fileName : io.listUserFiles(aliasDir, IOProperties.USER_FILE_EXTENSION)) {
+                Alias alias = io.convertTxtFileToAliasObj(aliasDir, fileName, IOProperties.USER_FILE_EXTENSION);
+                if (alias.getPosts().isEmpty()) {
+                    continue;
+                }
+                float[] vector = stylo.extractFeatures(alias.getPosts());
+                accumulator.add(vector);
+                writer.add(alias.getUserID(), vector);
+            }
+        }
+
+        NormalizationModel model = accumulator.build();
+        int nrOfAliases;
+        try (FeatureMatrixFile.Reader reader = new FeatureMatrixFile.Reader(rawFile);
+                FeatureMatrixFile.Writer writer = new FeatureMatrixFile.Writer(featureFile, reader.getNrOfFeatures())) {
+            nrOfAliases = reader.getNrOfAliases();
+            String[] ids = reader.readIds();
+            for (int i = 0; i < nrOfAliases; i++) {
+                writer.add(ids[i], model.apply(reader.readRows(i, i + 1)[0]));
+            }
+        }
+        Files.delete(rawFile.toPath());
+
+        Properties job = new Properties();
+        job.setProperty("blocks", Integer.toString(Math.max(1, Math.min(nrOfBlocks, nrOfAliases))));
+        job.setProperty("k", Integer.toString(k));
+        try (FileWriter writer = new FileWriter(jobFile)) {
+            job.store(writer, "Sharded all-pairs job");
+        }
+        loadJob();
+    }
+
+    private void loadJob() throws IOException {
+        Properties job = new Properties();
+        try (FileReader reader = new FileReader(new File(workDir, JOB_FILE))) {
+            job.load(reader);
+        }
+        nrOfBlocks = Integer.parseInt(job.getProperty("blocks"));
+        k = Integer.parseInt(job.getProperty("k"));
+    }
+
+    private File lockFile(int block1, int block2) {
+        return new File(workDir, "block-" + block1 + "-" + block2 + ".lock");
+    }
+
+    private File resultFile(int block1, int block2) {
+        return new File(workDir, "block-" + block1 + "-" + block2 + ".result");
+    }
+
+    /**
+     * Start worker processes until every block pair has a result, or give up
+     * after a number of rounds
+     *
+     * @param nrOfWorkers
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void runWorkers(int nrOfWorkers) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            int missing = releaseFailedBlocks();
+            if (missing == 0) {
+                return;
+            }
+            System.out.println("Round " + round + ": " + missing + " block pairs left");
+            List<Process> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(nrOfWorkers, missing); i++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", classPath,
+                        ShardedAllPairsJob.class.getName(), "worker", workDir.getPath());
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(workDir, "worker-" + i + ".log")));
+                workers.add(builder.start());
+            }
+            for (Process worker : workers) {
+                worker.waitFor();
+            }
+        }
+        int missing = releaseFailedBlocks();
+        if (missing > 0) {
+            throw new IOException(missing + " block pairs failed after " + MAX_ROUNDS + " rounds");
+        }
+    }
+
+    /**
+     * Remove the locks of block pairs without a result. Must only be called
+     * while no workers are running.
+     *
+     * @return the number of block pairs without a result
+     */
+    int releaseFailedBlocks() throws IOException {
+        int missing = 0;
+        for (int b1 = 0; b1 < nrOfBlocks; b1++) {
+            for (int b2 = b1; b2 < nrOfBlocks; b2++) {
+                if (!resultFile(b1, b2).exists()) {
+                    Files.deleteIfExists(lockFile(b1, b2).toPath());
+                    missing++;
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Claim and compare block pairs until there are none left. Only the rows
+     * of the two blocks being compared are read from the feature file, and
+     * the rows of block b1 are kept while it is compared with later blocks.
+     *
+     * @throws IOException
+     */
+    public void work() throws IOException {
+        loadJob();
+        try (FeatureMatrixFile.Reader matrix = new FeatureMatrixFile.Reader(new File(workDir, FEATURE_FILE))) {
+            int n = matrix.getNrOfAliases();
+            for (int b1 = 0; b1 < nrOfBlocks; b1++) {
+                float[][] rows1 = null;
+                for (int b2 = b1; b2 < nrOfBlocks; b2++) {
+                    if (resultFile(b1, b2).exists()) {
+                        continue;
+                    }
+                    try {
+                        Files.createFile(lockFile(b1, b2).toPath());
+                    } catch (FileAlreadyExistsException ex) {
+                        continue;	// Another worker has it
+                    }
+                    if (rows1 == null) {
+                        rows1 = matrix.readRows(blockStart(b1, n), blockStart(b1 + 1, n));
+                    }
+                    float[][] rows2 = b1 == b2 ? rows1 : matrix.readRows(blockStart(b2, n), blockStart(b2 + 1, n));
+                    compareBlocks(rows1, blockStart(b1, n), rows2, blockStart(b2, n), b1, b2);
+                }
+            }
+        }
+    }
+
+    private int blockStart(int block, int n) {
+        return (int) ((long) block * n / nrOfBlocks);
+    }
+
+    /**
+     * Compare all aliases in block b1 with all aliases in block b2 and write
+     * the top-k lists of the aliases in both blocks
+     *
+     * @param rows1 the vectors of block b1, starting at row start1
+     * @param rows2 the vectors of block b2, starting at row start2
+     */
+    private void compareBlocks(float[][] rows1, int start1, float[][] rows2, int start2, int b1, int b2) throws IOException {
+        TopKHeap[] heaps1 = new TopKHeap[rows1.length];
+        for (int i = 0; i < heaps1.length; i++) {
+            heaps1[i] = new TopKHeap(k);
+        }
+        TopKHeap[] heaps2 = heaps1;
+        if (b1 != b2) {
+            heaps2 = new TopKHeap[rows2.length];
+            for (int j = 0; j < heaps2.length; j++) {
+                heaps2[j] = new TopKHeap(k);
+            }
+        }
+        for (int i = 0; i < rows1.length; i++) {
+            for (int j = (b1 == b2 ? i + 1 : 0); j < rows2.length; j++) {
+                float sim = (float) StylometricAnalysisMain.calculateSimilarity(rows1[i], rows2[j], 0, rows1[i].length);
+                heaps1[i].offer(start2 + j, sim);
+                heaps2[j].offer(start1 + i, sim);
+            }
+        }
+
+        File result = resultFile(b1, b2);
+        File tmp = new File(result.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            writeHeaps(out, heaps1, start1);
+            if (b1 != b2) {
+                writeHeaps(out, heaps2, start2);
+            }
+            out.writeInt(-1);
+        }
+        Files.move(tmp.toPath(), result.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(lockFile(b1, b2).toPath());
+    }
+
+    private void writeHeaps(DataOutputStream out, TopKHeap[] heaps, int start) throws IOException {
+        int[] ids = new int[k];
+        float[] scores = new float[k];
+        for (int i = 0; i < heaps.length; i++) {
+            int count = heaps[i].drainDescending(ids, scores);
+            out.writeInt(start + i);
+            out.writeInt(count);
+            for (int c = 0; c < count; c++) {
+                out.writeInt(ids[c]);
+                out.writeFloat(scores[c]);
+            }
+        }
+    }
+
+    /**
+     * Merge the partial top-k lists of all block pairs into one tab separated
+     * file with the columns alias, matching alias and similarity
+     *
+     * @param output
+     * @throws IOException
+     */
+    public void merge(File output) throws IOException {
+        loadJob();
+        String[] aliasIds;
+        try (FeatureMatrixFile.Reader matrix = new FeatureMatrixFile.Reader(new File(workDir, FEATURE_FILE))) {
+            aliasIds = matrix.readIds();
+        }
+        TopKHeap[] heaps = new TopKHeap[aliasIds.length];
+        for (int i = 0; i < heaps.length; i++) {
+            heaps[i] = new TopKHeap(k);
+        }
+        for (int b1 = 0; b1 < nrOfBlocks; b1++) {
+            for (int b2 = b1; b2 < nrOfBlocks; b2++) {
+                File result = resultFile(b1, b2);
+                if (!result.exists()) {
+                    throw new IOException("Missing result for block pair " + b1 + ", " + b2);
+                }
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(result)))) {
+                    int alias;
+                    while ((alias = in.readInt()) >= 0) {
+                        int count = in.readInt();
+                        for (int c = 0; c < count; c++) {
+                            heaps[alias].offer(in.readInt(), in.readFloat());
+                        }
+                    }
+                }
+            }
+        }
+        int[] ids = new int[k];
+        float[] scores = new float[k];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
+            for (int i = 0; i < heaps.length; i++) {
+                int count = heaps[i].drainDescending(ids, scores);
+                for (int c = 0; c < count; c++) {
+                    writer.write(aliasIds[i] + "\t" + aliasIds[ids[c]] + "\t" + scores[c]);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length == 7 && "run".equals(args[0])) {
+                ShardedAllPairsJob job = new ShardedAllPairsJob(new File(args[2]));
+                job.prepare(args[1], Integer.parseInt(args[3]), Integer.parseInt(args[5]));
+                job.runWorkers(Integer.parseInt(args[4]));
+                job.merge(new File(args[6]));
+            } else if (args.length == 2 && "worker".equals(args[0])) {
+                new ShardedAllPairsJob(new File(args[1])).work();
+            } else if (args.length == 3 && "merge".equals(args[0])) {
+                new ShardedAllPairsJob(new File(args[1])).merge(new File(args[2]));
+            } else {
+                System.out.println("Usage: run aliasDir workDir nrOfBlocks nrOfWorkers k outputFile");
+                System.out.println("       worker workDir");
+                System.out.println("       merge workDir outputFile");
+                System.exit(2);
+            }
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            Logger.getLogger(ShardedAllPairsJob.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+    }
+}
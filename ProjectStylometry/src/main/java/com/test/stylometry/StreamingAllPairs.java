@@ -0,0 +1,382 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.FeatureMatrixFile;
+import com.test.IOHandler.IOProperties;
+import com.test.IOHandler.IOReadWrite;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares all pairs of aliases with a bounded amount of memory. Instead of
+ * printing every pair, two results are kept:
+ *
+ * - the edges with a similarity at or above a threshold. These are collected
+ * in a fixed-size buffer which, when full, is sorted and spilled to a run file.
+ * At the end the runs are merged (as in an external sort) into a single edge
+ * list ordered by decreasing similarity.
+ * - the k most similar aliases of each alias, kept in one TopKHeap per alias.
+ *
+ * When there are more runs than MAX_FAN_IN they are merged in several passes,
+ * at most MAX_FAN_IN at a time, to bound the number of open files.
+ *
+ * Both are written as binary edge lists: an int magic, the number of aliases,
+ * the alias IDs (modified UTF-8), the number of edges and then one (int alias,
+ * int alias, float similarity) record per edge. Optionally a CSV copy is
+ * written next to each binary file.
+ *
+ * @author ITE
+ */
+public class StreamingAllPairs {
+
+    public static final int EDGE_LIST_MAGIC = 0x5354594c;	// "STYL"
+    private static final int RECORD_SIZE = 12;
+    private static final int MAX_FAN_IN = 64;
+
+    private final File workDir;
+    private final int k;
+    private final float threshold;
+    private final int spillSize;
+    private boolean writeCsv;
+    private float[][] timeProfiles;
+    private float timeProfileWeight;
+
+    // The edge buffer
+    private final int[] bufferAlias1;
+    private final int[] bufferAlias2;
+    private final float[] bufferSim;
+    private int bufferCount;
+    private final List<File> runs;
+    private long nrOfEdges;
+
+    /**
+     * @param workDir directory for the output and the spill files
+     * @param k number of best matches to keep per alias
+     * @param threshold lowest similarity of an edge to keep
+     * @param spillSize number of edges held in memory before spilling
+     */
+    public StreamingAllPairs(File workDir, int k, float threshold, int spillSize) {
+        if (spillSize < 1) {
+            throw new IllegalArgumentException("Spill size must be at least 1: " + spillSize);
+        }
+        this.workDir = workDir;
+        this.k = k;
+        this.threshold = threshold;
+        this.spillSize = spillSize;
+        bufferAlias1 = new int[spillSize];
+        bufferAlias2 = new int[spillSize];
+        bufferSim = new float[spillSize];
+        runs = new ArrayList<>();
+    }
+
+    public void setWriteCsv(boolean writeCsv) {
+        this.writeCsv = writeCsv;
+    }
+
+    /**
+     * Combine the similarities with the similarities of the posting-time
+     * profiles, as compareAliases does. A null profile means that no post times
+     * are known for that alias. Without time profiles (the default) only the
+     * feature vectors are compared.
+     *
+     * @param timeProfiles
+     * @param timeProfileWeight
+     */
+    public void setTimeProfiles(float[][] timeProfiles, float timeProfileWeight) {
+        this.timeProfiles = timeProfiles;
+        this.timeProfileWeight = timeProfileWeight;
+    }
+
+    public long getNrOfEdges() {
+        return nrOfEdges;
+    }
+
+    /**
+     * Compare all pairs and write edges.bin and topk.bin (plus edges.csv and
+     * topk.csv if requested) to the work directory
+     *
+     * @param ids
+     * @param vectors
+     * @throws IOException
+     */
+    public void run(String[] ids, float[][] vectors) throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Could not create work directory " + workDir);
+        }
+        int n = ids.length;
+        TopKHeap[] heaps = new TopKHeap[n];
+        for (int i = 0; i < n; i++) {
+            heaps[i] = new TopKHeap(k);
+        }
+        bufferCount = 0;
+        nrOfEdges = 0;
+        runs.clear();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double featureSim = StylometricAnalysisMain.calculateSimilarity(vectors[i], vectors[j], 0, vectors[i].length);
+                float sim = (float) (timeProfiles == null ? featureSim
+                        : StylometricAnalysisMain.combineWithTimeProfiles(featureSim, timeProfiles[i], timeProfiles[j], timeProfileWeight));
+                heaps[i].offer(j, sim);
+                heaps[j].offer(i, sim);
+                if (sim >= threshold) {
+                    addEdge(i, j, sim);
+                }
+            }
+        }
+        spill();
+        mergeRuns(ids);
+        writeTopK(ids, heaps);
+    }
+
+    private void addEdge(int alias1, int alias2, float sim) throws IOException {
+        if (bufferCount == spillSize) {
+            spill();
+        }
+        bufferAlias1[bufferCount] = alias1;
+        bufferAlias2[bufferCount] = alias2;
+        bufferSim[bufferCount] = sim;
+        bufferCount++;
+        nrOfEdges++;
+    }
+
+    /**
+     * Sort the buffered edges by decreasing similarity and write them to a new
+     * run file
+     */
+    private void spill() throws IOException {
+        if (bufferCount == 0) {
+            return;
+        }
+        sortBuffer(0, bufferCount - 1);
+        File run = new File(workDir, "run-" + runs.size() + ".spill");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+            for (int i = 0; i < bufferCount; i++) {
+                out.writeInt(bufferAlias1[i]);
+                out.writeInt(bufferAlias2[i]);
+                out.writeFloat(bufferSim[i]);
+            }
+        }
+        runs.add(run);
+        bufferCount = 0;
+    }
+
+    // Quicksort on the three parallel buffer arrays, highest similarity first
+    private void sortBuffer(int low, int high) {
+        while (low < high) {
+            float pivot = bufferSim[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (bufferSim[i] > pivot) {
+                    i++;
+                }
+                while (bufferSim[j] < pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse into the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sortBuffer(low, j);
+                low = i;
+            } else {
+                sortBuffer(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int a1 = bufferAlias1[i];
+        int a2 = bufferAlias2[i];
+        float sim = bufferSim[i];
+        bufferAlias1[i] = bufferAlias1[j];
+        bufferAlias2[i] = bufferAlias2[j];
+        bufferSim[i] = bufferSim[j];
+        bufferAlias1[j] = a1;
+        bufferAlias2[j] = a2;
+        bufferSim[j] = sim;
+    }
+
+    /**
+     * One sorted run being merged
+     */
+    private static class RunReader {
+
+        final DataInputStream in;
+        long remaining;
+        int alias1;
+        int alias2;
+        float sim;
+
+        RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            remaining = run.length() / RECORD_SIZE;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            alias1 = in.readInt();
+            alias2 = in.readInt();
+            sim = in.readFloat();
+            remaining--;
+            return true;
+        }
+    }
+
+    /**
+     * Merge the sorted runs into edges.bin (and edges.csv), first merging
+     * groups of MAX_FAN_IN runs into longer runs while there are too many
+     */
+    private void mergeRuns(String[] ids) throws IOException {
+        for (int pass = 0; runs.size() > MAX_FAN_IN; pass++) {
+            List<File> merged = new ArrayList<>();
+            for (int start = 0; start < runs.size(); start += MAX_FAN_IN) {
+                List<File> group = runs.subList(start, Math.min(start + MAX_FAN_IN, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                File run = new File(workDir, "run-" + pass + "-" + merged.size() + ".spill");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+                    merge(group, out, null, ids);
+                }
+                merged.add(run);
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        try (DataOutputStream out = openEdgeList(new File(workDir, "edges.bin"), ids, nrOfEdges);
+                BufferedWriter csv = writeCsv ? new BufferedWriter(new FileWriter(new File(workDir, "edges.csv"))) : null) {
+            merge(runs, out, csv, ids);
+        }
+    }
+
+    /**
+     * Merge a group of sorted runs into one sorted stream of edges and delete
+     * the runs
+     */
+    private static void merge(List<File> group, DataOutputStream out, BufferedWriter csv, String[] ids) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, group.size()), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader r1, RunReader r2) {
+                return Float.compare(r2.sim, r1.sim);
+            }
+        });
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (File run : group) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                writeEdge(out, csv, ids, reader.alias1, reader.alias2, reader.sim);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+            for (File run : group) {
+                Files.deleteIfExists(run.toPath());
+            }
+        }
+    }
+
+    /**
+     * Write the best matches of every alias to topk.bin (and topk.csv)
+     */
+    private void writeTopK(String[] ids, TopKHeap[] heaps) throws IOException {
+        long count = 0;
+        for (TopKHeap heap : heaps) {
+            count += heap.size();
+        }
+        int[] matches = new int[k];
+        float[] sims = new float[k];
+        try (DataOutputStream out = openEdgeList(new File(workDir, "topk.bin"), ids, count);
+                BufferedWriter csv = writeCsv ? new BufferedWriter(new FileWriter(new File(workDir, "topk.csv"))) : null) {
+            for (int i = 0; i < heaps.length; i++) {
+                int nrOfMatches = heaps[i].drainDescending(matches, sims);
+                for (int m = 0; m < nrOfMatches; m++) {
+                    writeEdge(out, csv, ids, i, matches[m], sims[m]);
+                }
+            }
+        }
+    }
+
+    private static DataOutputStream openEdgeList(File file, String[] ids, long nrOfEdges) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(EDGE_LIST_MAGIC);
+        out.writeInt(ids.length);
+        for (String id : ids) {
+            out.writeUTF(id);
+        }
+        out.writeLong(nrOfEdges);
+        return out;
+    }
+
+    private static void writeEdge(DataOutputStream out, BufferedWriter csv, String[] ids, int alias1, int alias2, float sim) throws IOException {
+        out.writeInt(alias1);
+        out.writeInt(alias2);
+        out.writeFloat(sim);
+        if (csv != null) {
+            csv.write(ids[alias1] + "," + ids[alias2] + "," + sim);
+            csv.newLine();
+        }
+    }
+
+    /**
+     * Usage: input workDir k threshold [spillSize] [csv], where input is
+     * either a directory of user files or a feature matrix file (.bin)
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: aliasDir|features.bin workDir k threshold [spillSize] [csv]");
+            System.exit(2);
+        }
+        try {
+            int spillSize = args.length > 4 ? Integer.parseInt(args[4]) : 1 << 20;
+            StreamingAllPairs allPairs = new StreamingAllPairs(new File(args[1]), Integer.parseInt(args[2]), Float.parseFloat(args[3]), spillSize);
+            allPairs.setWriteCsv(args.length > 5 && "csv".equals(args[5]));
+            if (args[0].endsWith(".bin")) {
+                FeatureMatrixFile matrix = FeatureMatrixFile.read(new File(args[0]));
+                allPairs.run(matrix.getIds(), matrix.getVectors());
+            } else {
+                StylometricAnalysisMain stylo = new StylometricAnalysisMain();
+                stylo.setAliases(new IOReadWrite().convertTxtFilesToAliasObjs(args[0], IOProperties.USER_FILE_EXTENSION));
+                stylo.createFeatureVectors();
+                stylo.compareAllPairsOfAliases(allPairs);
+            }
+            System.out.println(allPairs.getNrOfEdges() + " edges at or above " + args[3]);
+        } catch (IOException ex) {
+            Logger.getLogger(StreamingAllPairs.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+    }
+}
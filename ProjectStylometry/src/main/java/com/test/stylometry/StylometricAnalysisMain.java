@@ -4,14 +4,16 @@ package com.test.stylometry;
  *
  * @author ITE
  */
+import com.test.IOHandler.FunctionWordLexicon;
 import com.test.IOHandler.IOProperties;
 import com.test.IOHandler.IOReadWrite;
 import com.test.model.Alias;
-import java.io.BufferedReader;
+import com.test.model.AliasVectorView;
+import com.test.model.OffHeapAliasRegistry;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.text.BreakIterator;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -55,14 +57,54 @@ import java.util.logging.Logger;
  */
 public class StylometricAnalysisMain {
 
-    private List<String> functionWords;			// Contains the function words we are using
+    private FunctionWordLexicon functionWords;	// Contains the function words we are using
     private List<Alias> aliases;				// The aliases we are interested in to compare        
     private List<List<Float>> featVectorForAllAliases;
+    private float timeProfileWeight;			// Weight of the posting-time profile when comparing aliases
 
+    /**
+     * Use the function words given by the system property
+     * IOProperties.FUNCTION_WORDS_PROPERTY (a file path), or else the bundled
+     * IOProperties.FUNCTION_WORDS lexicon
+     */
     public StylometricAnalysisMain() {
-        System.out.println("UserPath: " + System.getProperty("user.dir"));
-        loadFunctionWords(IOProperties.FUNCTION_WORDS);
+        this(System.getProperty(IOProperties.FUNCTION_WORDS_PROPERTY));
+    }
+
+    /**
+     * @param functionWordsPath a plain text function word file, or null for the
+     * bundled IOProperties.FUNCTION_WORDS lexicon
+     */
+    public StylometricAnalysisMain(String functionWordsPath) {
+        Logger.getLogger(StylometricAnalysisMain.class.getName()).log(Level.FINE, "UserPath: {0}", System.getProperty("user.dir"));
+        loadFunctionWords(functionWordsPath);
         aliases = new ArrayList<>();
+        timeProfileWeight = IOProperties.TIME_PROFILE_WEIGHT;
+    }
+
+    public List<Alias> getAliases() {
+        return aliases;
+    }
+
+    public void setAliases(List<Alias> aliases) {
+        this.aliases = aliases;
+    }
+
+    public float getTimeProfileWeight() {
+        return timeProfileWeight;
+    }
+
+    /**
+     * Set how much the posting-time profile should count when comparing two
+     * aliases (0 = stylometric features only, 1 = time profile only)
+     *
+     * @param timeProfileWeight
+     */
+    public void setTimeProfileWeight(float timeProfileWeight) {
+        if (timeProfileWeight < 0.0f || timeProfileWeight > 1.0f) {
+            throw new IllegalArgumentException("Time profile weight must be between 0 and 1: " + timeProfileWeight);
+        }
+        this.timeProfileWeight = timeProfileWeight;
     }
 
     public List<Float> executeAnalysis(String ID) throws IOException, SQLException {
@@ -84,6 +126,18 @@ public class StylometricAnalysisMain {
         return freatuteVector;
     }
 
+    /**
+     * Score a block of anonymous texts against a set of known aliases at once
+     *
+     * @param texts
+     * @param scorer holding the known aliases
+     * @param k number of best matches to return per text
+     * @return
+     */
+    public BatchQueryScorer.Result executeBatchTxtStylo(List<String> texts, BatchQueryScorer scorer, int k) {
+        return scorer.scoreTexts(this, texts, k);
+    }
+
     public double returnStylo(List post1, List post2) {
         double stylo = 0.0;
         try {
@@ -107,12 +161,94 @@ public class StylometricAnalysisMain {
     }
 
     public List<Float> executeTxtStylo(String post) {
-        Alias user = new Alias();
-        user.setSinglePost(post);
-        List<Float> freatuteVector = createFeatureVectors(user);
+        float[] features = extractPostFeatures(post);
+        List<Float> freatuteVector = new ArrayList<>(features.length);
+        for (float feature : features) {
+            freatuteVector.add(feature);
+        }
         return freatuteVector;
     }
 
+    /**
+     * Extract the feature vector of a single post. Does not change the state
+     * of this object, so it can be called from several threads at once.
+     *
+     * @param post
+     * @return
+     */
+    public float[] extractPostFeatures(String post) {
+        float[] features = new float[getNrOfFeatures()];
+        List<String> wordsInPost = extractWords(post);
+        int placeInFeatureVector = copyFeatures(countFunctionWords(wordsInPost), features, 0);
+        placeInFeatureVector = copyFeatures(countWordLengths(wordsInPost), features, placeInFeatureVector);
+        placeInFeatureVector = copyFeatures(countCharactersAZ(post), features, placeInFeatureVector);
+        copyFeatures(countSpecialCharacters(post), features, placeInFeatureVector);
+        return features;
+    }
+
+    /**
+     * Extract the feature vector averaged over a number of posts, without
+     * normalization. Thread safe, like extractPostFeatures.
+     *
+     * @param posts
+     * @return
+     */
+    public float[] extractFeatures(List<String> posts) {
+        float[] features = new float[getNrOfFeatures()];
+        for (String post : posts) {
+            float[] postFeatures = extractPostFeatures(post);
+            for (int i = 0; i < features.length; i++) {
+                features[i] += postFeatures[i];
+            }
+        }
+        for (int i = 0; i < features.length; i++) {
+            features[i] /= posts.size();
+        }
+        return features;
+    }
+
+    /**
+     * Feed the posts of an alias, in order, through a windowed profile and
+     * record how similar the window is to the older posts after each post.
+     * Requires the post times of the alias, either as Timestamps or as times
+     * of day (HH:mm:ss).
+     *
+     * @param alias
+     * @param profile
+     * @return one similarity per post (NaN until the window has filled up)
+     */
+    public List<Double> trackStyleDrift(Alias alias, WindowedProfile profile) {
+        List<String> posts = alias.getPosts();
+        List postTimes = alias.getPostTime();
+        List<Double> similarities = new ArrayList<>(posts.size());
+        for (int i = 0; i < posts.size(); i++) {
+            Object time = postTimes.get(i);
+            if (time instanceof Timestamp) {
+                profile.addPost(extractPostFeatures(posts.get(i)), ((Timestamp) time).getTime() / 1000);
+            } else {
+                profile.addPost(extractPostFeatures(posts.get(i)), (String) time);
+            }
+            similarities.add(profile.windowVsHistorySimilarity());
+        }
+        return similarities;
+    }
+
+    private static int copyFeatures(List<Float> values, float[] features, int startIndex) {
+        for (Float value : values) {
+            features[startIndex++] = value;
+        }
+        return startIndex;
+    }
+
+    /**
+     * The number of features extracted by extractPostFeatures
+     *
+     * @return
+     */
+    public int getNrOfFeatures() {
+        return getCharacterFeatureEnd();
+    }
+
     /**
      * Extract words from text string, remove punctuation etc.
      *
@@ -127,30 +263,28 @@ public class StylometricAnalysisMain {
     }
 
     /**
-     * Load the list of function words from file
+     * Load the list of function words, either from a file or from the bundled
+     * lexicons on the classpath
      *
-     * @param path
+     * @param path the file, or null for the bundled lexicon
      */
     private void loadFunctionWords(String path) {
-        functionWords = new ArrayList<>();
-        BufferedReader br;
         try {
-            path = System.getProperty("user.home") + File.separator + path;
-            System.out.println(path);
-            br = new BufferedReader(new FileReader(path));
-
-            String strLine;
-            while ((strLine = br.readLine()) != null) {
-                String trimmedLine = strLine.trim();
-                if (!"".equals(trimmedLine)) {
-                    functionWords.add(trimmedLine.trim());
-                }
+            if (path == null) {
+                functionWords = FunctionWordLexicon.loadBundled(IOProperties.FUNCTION_WORDS);
+            } else {
+                Logger.getLogger(StylometricAnalysisMain.class.getName()).log(Level.FINE, "Function words: {0}", path);
+                functionWords = FunctionWordLexicon.loadFile(new File(path));
             }
-            br.close();
-        } catch (Exception e) {
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not load function words", ex);
         }
     }
 
+    public List<String> getFunctionWords() {
+        return functionWords.getWords();
+    }
+
     /**
      * Create a list containing the number of occurrences of the various
      * function words in the post (list of extracted words)
@@ -162,8 +296,8 @@ public class StylometricAnalysisMain {
         ArrayList<Float> tmpCounter = new ArrayList<>(Collections.nCopies(functionWords.size(), 0.0f));	// Initialize to zero
 
         for (String word : words) {
-            if (functionWords.contains(word)) {
-                int place = functionWords.indexOf(word);
+            int place = functionWords.indexOf(word);
+            if (place >= 0) {
                 float value = tmpCounter.get(place);
                 value++;
                 tmpCounter.set(place, value);
@@ -327,6 +461,7 @@ public class StylometricAnalysisMain {
         featVectorForAllAliases = new ArrayList<>();
         //  for (Alias alias : aliases) {
         int cnt = 0;
+        user.setNrOfFeatures(getNrOfFeatures());
         user.setFeatureVectorPosList(user.initializeFeatureVectorPostList());
         // Calculate each part of the "feature vector" for each individual post
         for (String post : user.getPosts()) {
@@ -341,28 +476,31 @@ public class StylometricAnalysisMain {
             placeInFeatureVector = placeInFeatureVector + countWordLengths(wordsInPost).size();
             user.addToFeatureVectorPostList(countCharactersAZ(post), placeInFeatureVector, cnt);
 
-            placeInFeatureVector = placeInFeatureVector + countSpecialCharacters(post).size();
+            placeInFeatureVector = placeInFeatureVector + countCharactersAZ(post).size();
             user.addToFeatureVectorPostList(countSpecialCharacters(post), placeInFeatureVector, cnt);
             cnt++;
             //   }
+        }
+        if (cnt == 0) {
+            return featureVector;
+        }
 
-            ArrayList<ArrayList<Float>> featureVectorList = user.getFeatureVectorPosList();
+        ArrayList<ArrayList<Float>> featureVectorList = user.getFeatureVectorPosList();
 
-            int numberOfPosts = user.getPosts().size();
-            int nrOfFeatures = featureVectorList.get(0).size();
-            featureVector = new ArrayList<>(Collections.nCopies(nrOfFeatures, 0.0f));
-            // Now we average over all posts to create a single feature vector for each alias
-            for (int i = 0; i < nrOfFeatures; i++) {
-                float value = 0.0f;
-                for (int j = 0; j < numberOfPosts; j++) {
-                    value += featureVectorList.get(j).get(i);
-                }
-                value /= numberOfPosts;
-                featureVector.set(i, value);
+        int numberOfPosts = user.getPosts().size();
+        int nrOfFeatures = featureVectorList.get(0).size();
+        featureVector = new ArrayList<>(Collections.nCopies(nrOfFeatures, 0.0f));
+        // Now we average over all posts to create a single feature vector for each alias
+        for (int i = 0; i < nrOfFeatures; i++) {
+            float value = 0.0f;
+            for (int j = 0; j < numberOfPosts; j++) {
+                value += featureVectorList.get(j).get(i);
             }
-            user.setFeatureVector(featureVector);
-            featVectorForAllAliases.add(featureVector);
+            value /= numberOfPosts;
+            featureVector.set(i, value);
         }
+        user.setFeatureVector(featureVector);
+        featVectorForAllAliases.add(featureVector);
         return featureVector;
     }
 
@@ -375,15 +513,20 @@ public class StylometricAnalysisMain {
         List<Float> featureVector = new ArrayList<>();
         featVectorForAllAliases = new ArrayList<>();
         for (Alias alias : user) {
+            if (hasOnlyFeatureVector(alias)) {
+                featVectorForAllAliases.add(alias.getFeatureVector());
+                continue;
+            }
             int cnt = 0;
+            alias.setNrOfFeatures(getNrOfFeatures());
             alias.setFeatureVectorPosList(alias.initializeFeatureVectorPostList());
             // Calculate each part of the "feature vector" for each individual post
             for (String post : alias.getPosts()) {
                 List<String> wordsInPost = extractWords(post);
                 alias.addToFeatureVectorPostList(countFunctionWords(wordsInPost), 0, cnt);
-                alias.addToFeatureVectorPostList(countWordLengths(wordsInPost), 293, cnt);
-                alias.addToFeatureVectorPostList(countCharactersAZ(post), 313, cnt);
-                alias.addToFeatureVectorPostList(countSpecialCharacters(post), 339, cnt);
+                alias.addToFeatureVectorPostList(countWordLengths(wordsInPost), functionWords.size(), cnt);
+                alias.addToFeatureVectorPostList(countCharactersAZ(post), getCharacterFeatureOffset(), cnt);
+                alias.addToFeatureVectorPostList(countSpecialCharacters(post), getCharacterFeatureOffset() + 29, cnt);
                 cnt++;
             }
 
@@ -407,11 +550,21 @@ public class StylometricAnalysisMain {
         normalizeFeatureVector();
     }
 
+    /**
+     * Construct the feature vectors of all aliases and standardize them.
+     * Aliases without posts that already have a feature vector (such as those
+     * from AliasFeatureAccumulator) keep it and are only standardized.
+     */
     public void createFeatureVectors() {
         List<Float> featureVector;
         featVectorForAllAliases = new ArrayList<>();
         for (Alias alias : aliases) {
+            if (hasOnlyFeatureVector(alias)) {
+                featVectorForAllAliases.add(alias.getFeatureVector());
+                continue;
+            }
             int cnt = 0;
+            alias.setNrOfFeatures(getNrOfFeatures());
             alias.setFeatureVectorPosList(alias.initializeFeatureVectorPostList());
             // Calculate each part of the "feature vector" for each individual post
             for (String post : alias.getPosts()) {
@@ -457,6 +610,10 @@ public class StylometricAnalysisMain {
         normalizeFeatureVector();
     }
 
+    private static boolean hasOnlyFeatureVector(Alias alias) {
+        return alias.getPosts().isEmpty() && alias.getFeatureVector() != null && !alias.getFeatureVector().isEmpty();
+    }
+
     /**
      * Used for comparing two feature vectors
      *
@@ -491,10 +648,24 @@ public class StylometricAnalysisMain {
      * @return
      */
     public double calculateSimilarity(float[] value1, float[] value2) {
+        return calculateSimilarity(value1, value2, 0, value1.length);
+    }
+
+    /**
+     * Calculates cosine similarity between two real vectors, only considering
+     * the features in the range [from, to)
+     *
+     * @param value1
+     * @param value2
+     * @param from
+     * @param to
+     * @return
+     */
+    public static double calculateSimilarity(float[] value1, float[] value2, int from, int to) {
         float sum = 0.0f;
         float sum1 = 0.0f;
         float sum2 = 0.0f;
-        for (int i = 0; i < value1.length; i++) {
+        for (int i = from; i < to; i++) {
             float v1 = value1[i];
             float v2 = value2[i];
             if ((!Float.isNaN(v1)) && (!Float.isNaN(v2))) {
@@ -503,6 +674,34 @@ public class StylometricAnalysisMain {
                 sum2 += v2 * v2;
             }
         }
+        return cosine(sum, sum1, sum2);
+    }
+
+    /**
+     * Calculates cosine similarity between a vector and the feature vector
+     * of an alias in an OffHeapAliasRegistry
+     *
+     * @param value1
+     * @param view2
+     * @return
+     */
+    public static double calculateSimilarity(float[] value1, AliasVectorView view2) {
+        float sum = 0.0f;
+        float sum1 = 0.0f;
+        float sum2 = 0.0f;
+        for (int i = 0; i < value1.length; i++) {
+            float v1 = value1[i];
+            float v2 = view2.get(i);
+            if ((!Float.isNaN(v1)) && (!Float.isNaN(v2))) {
+                sum += v2 * v1;
+                sum1 += v1 * v1;
+                sum2 += v2 * v2;
+            }
+        }
+        return cosine(sum, sum1, sum2);
+    }
+
+    static double cosine(float sum, float sum1, float sum2) {
         if ((sum1 > 0) && (sum2 > 0)) {
             double result = sum / (Math.sqrt(sum1) * Math.sqrt(sum2));
             // result can be > 1 (or -1) due to rounding errors for equal vectors, 
@@ -516,6 +715,60 @@ public class StylometricAnalysisMain {
         }
     }
 
+    /**
+     * Compare two aliases. The stylometric similarity is combined with the
+     * similarity of the posting-time profiles according to the time profile
+     * weight, provided that post times are known for both aliases.
+     *
+     * @param alias1
+     * @param alias2
+     * @return
+     */
+    public double compareAliases(Alias alias1, Alias alias2) {
+        double sim = calculateSimilarity(alias1.getFeatureArray(), alias2.getFeatureArray());
+        if (timeProfileWeight > 0.0f && alias1.getNrOfTimedPosts() > 0 && alias2.getNrOfTimedPosts() > 0) {
+            sim = combineWithTimeProfiles(sim, alias1.getTimeProfile(), alias2.getTimeProfile(), timeProfileWeight);
+        }
+        return sim;
+    }
+
+    /**
+     * Combine a stylometric similarity with the similarity of two posting-time
+     * profiles, as compareAliases does. A null profile means that no post times
+     * are known, and then the stylometric similarity is returned unchanged.
+     *
+     * @param sim
+     * @param profile1
+     * @param profile2
+     * @param weight
+     * @return
+     */
+    public static double combineWithTimeProfiles(double sim, float[] profile1, float[] profile2, float weight) {
+        if (weight <= 0.0f || profile1 == null || profile2 == null) {
+            return sim;
+        }
+        double timeSim = calculateSimilarity(profile1, profile2, 0, profile1.length);
+        return (1.0 - weight) * sim + weight * timeSim;
+    }
+
+    /**
+     * The time profiles of the aliases for combineWithTimeProfiles, or null if
+     * the time profile weight is 0
+     *
+     * @return
+     */
+    float[][] getTimeProfiles() {
+        if (timeProfileWeight <= 0.0f) {
+            return null;
+        }
+        float[][] profiles = new float[aliases.size()][];
+        for (int i = 0; i < profiles.length; i++) {
+            Alias alias = aliases.get(i);
+            profiles[i] = alias.getNrOfTimedPosts() > 0 ? alias.getTimeProfile() : null;
+        }
+        return profiles;
+    }
+
     /**
      * Calculate similarity between all pairs of aliases (a lot of comparisons
      * if there are many aliases)
@@ -523,7 +776,7 @@ public class StylometricAnalysisMain {
     public void compareAllPairsOfAliases() {
         for (int i = 0; i < aliases.size(); i++) {
             for (int j = i + 1; j < aliases.size(); j++) {
-                double sim = compareFeatureVectors(aliases.get(i).getFeatureVector(), aliases.get(j).getFeatureVector());
+                double sim = compareAliases(aliases.get(i), aliases.get(j));
                 System.out.println("Similarity between alias " + aliases.get(i).getUserID() + " and " + aliases.get(j).getUserID() + " is: " + sim);
             }
         }
@@ -540,9 +793,7 @@ public class StylometricAnalysisMain {
         int indexMostSimilar = 0;
         for (int i = 0; i < aliases.size(); i++) {
             if (i != index) {
-                double sim = compareFeatureVectors(aliases.
-                        get(i).getFeatureVector(),
-                        aliases.get(index).getFeatureVector());
+                double sim = compareAliases(aliases.get(i), aliases.get(index));
                 if (sim > highestSimilarity) {
                     highestSimilarity = sim;
                     indexMostSimilar = i;
@@ -552,6 +803,170 @@ public class StylometricAnalysisMain {
         return indexMostSimilar;
     }
 
+    /**
+     * Calculate similarity between all pairs of aliases, streaming the results
+     * to the given output instead of printing them
+     *
+     * @param output
+     * @throws IOException
+     */
+    public void compareAllPairsOfAliases(StreamingAllPairs output) throws IOException {
+        String[] ids = new String[aliases.size()];
+        float[][] vectors = new float[aliases.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = aliases.get(i).getUserID();
+            vectors[i] = aliases.get(i).getFeatureArray();
+        }
+        output.setTimeProfiles(getTimeProfiles(), timeProfileWeight);
+        output.run(ids, vectors);
+    }
+
+    /**
+     * Group the aliases into clusters of likely sockpuppets over a sparse
+     * similarity graph, without calculating the similarity of all pairs. The
+     * edges are scored like compareAliases, including the time profiles.
+     *
+     * @param clustering
+     * @return the clusters, as lists of aliases
+     */
+    public List<List<Alias>> clusterAliases(AliasClustering clustering) {
+        float[][] vectors = new float[aliases.size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = aliases.get(i).getFeatureArray();
+        }
+        clustering.setTimeProfiles(getTimeProfiles(), timeProfileWeight);
+        List<List<Alias>> clusters = new ArrayList<>();
+        for (AliasClustering.Cluster cluster : clustering.run(vectors)) {
+            List<Alias> members = new ArrayList<>(cluster.getMembers().length);
+            for (int member : cluster.getMembers()) {
+                members.add(aliases.get(member));
+            }
+            clusters.add(members);
+        }
+        return clusters;
+    }
+
+    /**
+     * Calculate similarity between all pairs of aliases that survive the
+     * candidate stages of the cascade
+     *
+     * @param cascade
+     */
+    public void compareAllPairsOfAliases(MatchingCascade cascade) {
+        for (int i = 0; i < aliases.size(); i++) {
+            for (int j = i + 1; j < aliases.size(); j++) {
+                int stage = cascade.findRejectingStage(aliases.get(i), aliases.get(j));
+                if (stage >= 0) {
+                    if (cascade.isAudit() && compareAliases(aliases.get(i), aliases.get(j)) >= cascade.getAuditThreshold()) {
+                        cascade.recordLost(stage);
+                    }
+                    continue;
+                }
+                cascade.recordFullComparison();
+                double sim = compareAliases(aliases.get(i), aliases.get(j));
+                System.out.println("Similarity between alias " + aliases.get(i).getUserID() + " and " + aliases.get(j).getUserID() + " is: " + sim);
+            }
+        }
+    }
+
+    /**
+     * Find the index of the alias that is most similar to the selected alias,
+     * only doing the full comparison for candidates that survive the cascade.
+     *
+     * @param index
+     * @param cascade
+     * @return -1 if all candidates were pruned
+     */
+    public int findBestMatch(int index, MatchingCascade cascade) {
+        double highestSimilarity = -10.0;
+        int indexMostSimilar = -1;
+        int nrOfStages = cascade.getStages().size();
+        double[] highestPruned = new double[nrOfStages];
+        Arrays.fill(highestPruned, -10.0);
+        Alias query = aliases.get(index);
+        for (int i = 0; i < aliases.size(); i++) {
+            if (i != index) {
+                int stage = cascade.findRejectingStage(query, aliases.get(i));
+                if (stage >= 0) {
+                    if (cascade.isAudit()) {
+                        highestPruned[stage] = Math.max(highestPruned[stage], compareAliases(aliases.get(i), query));
+                    }
+                    continue;
+                }
+                cascade.recordFullComparison();
+                double sim = compareAliases(aliases.get(i), query);
+                if (sim > highestSimilarity) {
+                    highestSimilarity = sim;
+                    indexMostSimilar = i;
+                }
+            }
+        }
+        if (cascade.isAudit()) {
+            // The true best match was lost if a pruned candidate beats the survivors
+            int lostAt = -1;
+            for (int stage = 0; stage < nrOfStages; stage++) {
+                if (highestPruned[stage] > highestSimilarity
+                        && (lostAt < 0 || highestPruned[stage] > highestPruned[lostAt])) {
+                    lostAt = stage;
+                }
+            }
+            if (lostAt >= 0) {
+                cascade.recordLost(lostAt);
+            }
+        }
+        return indexMostSimilar;
+    }
+
+    /**
+     * Find the alias in the registry that is most similar to the alias in the
+     * given slot
+     *
+     * @param registry
+     * @param slot
+     * @return the slot of the best match, or -1 if there is no other alias
+     * @throws IllegalArgumentException if the slot is not in use
+     */
+    public static int findBestMatch(OffHeapAliasRegistry registry, int slot) {
+        if (!registry.isLive(slot)) {
+            throw new IllegalArgumentException("Slot " + slot + " is not in use");
+        }
+        float[] query = new float[registry.getNrOfFeatures()];
+        AliasVectorView view = registry.newView();
+        view.moveTo(slot).copyTo(query);
+        double highestSimilarity = -10.0;
+        int slotMostSimilar = -1;
+        for (int i = 0; i < registry.getHighWater(); i++) {
+            if (i != slot && registry.isLive(i)) {
+                double sim = calculateSimilarity(query, view.moveTo(i));
+                if (sim > highestSimilarity) {
+                    highestSimilarity = sim;
+                    slotMostSimilar = i;
+                }
+            }
+        }
+        return slotMostSimilar;
+    }
+
+    /**
+     * The index of the first letter/digit/punctuation feature, i.e. the start
+     * of the cheap character signature used by MatchingCascade.signatureStage
+     *
+     * @return
+     */
+    public int getCharacterFeatureOffset() {
+        return functionWords.size() + 20;
+    }
+
+    /**
+     * The index after the last character (letters, digits and punctuation)
+     * feature
+     *
+     * @return
+     */
+    public int getCharacterFeatureEnd() {
+        return getCharacterFeatureOffset() + 29 + 21;
+    }
+
     /**
      * Standardize/normalize the feature vectors for all aliases. Aim is mean 0
      * and variance 1 for each feature vector. Please note that this will result
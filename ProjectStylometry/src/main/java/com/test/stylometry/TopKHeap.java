@@ -0,0 +1,130 @@
+package com.test.stylometry;
+
+/**
+ * Keeps the k highest scoring (id, score) pairs seen so far in a min-heap
+ * backed by primitive arrays, so that the lowest of the kept scores can be
+ * replaced in O(log k).
+ *
+ * @author ITE
+ */
+public class TopKHeap {
+
+    private final int[] ids;
+    private final float[] scores;
+    private int size;
+
+    public TopKHeap(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        ids = new int[k];
+        scores = new float[k];
+    }
+
+    public int getK() {
+        return ids.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The score a new pair has to beat to be kept
+     *
+     * @return
+     */
+    public float getThreshold() {
+        return size < ids.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * Linear search for an id among the kept pairs, O(k)
+     *
+     * @param id
+     * @return
+     */
+    public boolean contains(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Offer a pair to the heap
+     *
+     * @param id
+     * @param score
+     * @return true if the pair was kept
+     */
+    public boolean offer(int id, float score) {
+        if (size < ids.length) {
+            int i = size++;
+            // Sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+        if (score <= scores[0]) {
+            return false;
+        }
+        siftDown(id, score);
+        return true;
+    }
+
+    private void siftDown(int id, float score) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && scores[child + 1] < scores[child]) {
+                child++;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    /**
+     * Remove all pairs from the heap, writing them to the arrays with the
+     * highest score first
+     *
+     * @param idsOut
+     * @param scoresOut
+     * @return the number of pairs written
+     */
+    public int drainDescending(int[] idsOut, float[] scoresOut) {
+        int count = size;
+        while (size > 0) {
+            int last = --size;
+            idsOut[last] = ids[0];
+            scoresOut[last] = scores[0];
+            if (last > 0) {
+                siftDown(ids[last], scores[last]);
+            }
+        }
+        return count;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,169 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.IOReadWrite;
+
+/**
+ * A sliding-window author profile for detecting changes in writing style
+ * (shared or hijacked accounts). The per-post feature vectors of the most
+ * recent posts are kept in a ring buffer together with their per-feature sums,
+ * and posts that leave the window are added to the sums of the history. Both
+ * adding and evicting a post therefore cost O(features), and the window can be
+ * compared with the history after every post.
+ *
+ * The window is bounded by a number of posts, an age in seconds, or both (0
+ * means no bound). Posts must be added in chronological order. Missing (NaN)
+ * features, as extracted from an empty post, count as 0 so that they cannot
+ * spoil the running sums.
+ *
+ * @author ITE
+ */
+public class WindowedProfile {
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final int maxPosts;
+    private final long maxAgeSeconds;
+    private final int nrOfFeatures;
+    private NormalizationModel model;
+
+    // Ring buffer of the posts in the window
+    private float[][] ring;
+    private long[] ringTimes;
+    private int head;
+    private int count;
+    private final double[] windowSums;
+
+    private final double[] historySums;
+    private long historyCount;
+
+    // Used to turn times of day into a running time
+    private long dayOffset;
+    private long lastSecondOfDay = -1;
+
+    public WindowedProfile(int nrOfFeatures, int maxPosts, long maxAgeSeconds) {
+        if (maxPosts <= 0 && maxAgeSeconds <= 0) {
+            throw new IllegalArgumentException("The window must be bounded by posts or by time");
+        }
+        this.nrOfFeatures = nrOfFeatures;
+        this.maxPosts = maxPosts;
+        this.maxAgeSeconds = maxAgeSeconds;
+        int capacity = maxPosts > 0 ? maxPosts : 16;
+        ring = new float[capacity][];
+        ringTimes = new long[capacity];
+        windowSums = new double[nrOfFeatures];
+        historySums = new double[nrOfFeatures];
+    }
+
+    /**
+     * Standardize the window and history profiles with this model before
+     * comparing them (null compares the raw features)
+     *
+     * @param model
+     */
+    public void setNormalizationModel(NormalizationModel model) {
+        this.model = model;
+    }
+
+    public int getWindowSize() {
+        return count;
+    }
+
+    public long getHistorySize() {
+        return historyCount;
+    }
+
+    /**
+     * Add a post, evicting the posts that no longer fit in the window
+     *
+     * @param features the feature vector of the post
+     * @param time the time of the post in seconds
+     */
+    public void addPost(float[] features, long time) {
+        while (count > 0 && ((maxPosts > 0 && count >= maxPosts)
+                || (maxAgeSeconds > 0 && ringTimes[head] <= time - maxAgeSeconds))) {
+            evictOldest();
+        }
+        if (count == ring.length) {
+            grow();
+        }
+        int slot = (head + count) % ring.length;
+        if (ring[slot] == null) {
+            ring[slot] = new float[nrOfFeatures];
+        }
+        float[] post = ring[slot];
+        for (int i = 0; i < nrOfFeatures; i++) {
+            post[i] = Float.isNaN(features[i]) ? 0.0f : features[i];
+            windowSums[i] += post[i];
+        }
+        ringTimes[slot] = time;
+        count++;
+    }
+
+    /**
+     * Add a post with a time of day on the form HH:mm:ss. A time earlier than
+     * that of the previous post is taken to be on the following day.
+     *
+     * @param features
+     * @param timeOfDay
+     */
+    public void addPost(float[] features, String timeOfDay) {
+        long secondOfDay = IOReadWrite.parseSecondOfDay(timeOfDay);
+        if (secondOfDay < lastSecondOfDay) {
+            dayOffset += SECONDS_PER_DAY;
+        }
+        lastSecondOfDay = secondOfDay;
+        addPost(features, dayOffset + secondOfDay);
+    }
+
+    private void evictOldest() {
+        float[] oldest = ring[head];
+        for (int i = 0; i < nrOfFeatures; i++) {
+            windowSums[i] -= oldest[i];
+            historySums[i] += oldest[i];
+        }
+        historyCount++;
+        head = (head + 1) % ring.length;
+        count--;
+    }
+
+    // Only needed for windows bounded by time alone
+    private void grow() {
+        float[][] newRing = new float[ring.length * 2][];
+        long[] newTimes = new long[ring.length * 2];
+        for (int i = 0; i < count; i++) {
+            newRing[i] = ring[(head + i) % ring.length];
+            newTimes[i] = ringTimes[(head + i) % ring.length];
+        }
+        ring = newRing;
+        ringTimes = newTimes;
+        head = 0;
+    }
+
+    public float[] getWindowProfile() {
+        return average(windowSums, count);
+    }
+
+    public float[] getHistoryProfile() {
+        return average(historySums, historyCount);
+    }
+
+    private float[] average(double[] sums, long n) {
+        float[] profile = new float[nrOfFeatures];
+        for (int i = 0; i < nrOfFeatures; i++) {
+            profile[i] = (float) (sums[i] / n);
+        }
+        return model == null ? profile : model.apply(profile);
+    }
+
+    /**
+     * Cosine similarity between the posts in the window and all older posts
+     *
+     * @return NaN as long as no post has left the window
+     */
+    public double windowVsHistorySimilarity() {
+        if (count == 0 || historyCount == 0) {
+            return Double.NaN;
+        }
+        return StylometricAnalysisMain.calculateSimilarity(getWindowProfile(), getHistoryProfile(), 0, nrOfFeatures);
+    }
+}
@@ -0,0 +1,130 @@
+package com.test.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author ITE
+ */
+public class OffHeapAliasRegistryTest {
+
+    private static float[] vector(float value) {
+        return new float[]{value, value + 1, value + 2};
+    }
+
+    @Test
+    public void putAllocatesNewSlabsWhenFull() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 4);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, registry.put("alias" + i, vector(i)));
+        }
+        assertEquals(10, registry.size());
+        assertEquals(10, registry.getHighWater());
+        AliasVectorView view = registry.newView();
+        float[] features = new float[3];
+        for (int i = 0; i < 10; i++) {
+            int slot = registry.slotOf("alias" + i);
+            view.moveTo(slot).copyTo(features);
+            assertArrayEquals(vector(i), features, 0.0f);
+            assertEquals("alias" + i, view.getId());
+        }
+    }
+
+    @Test
+    public void putReplacesFeaturesOfExistingAlias() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 4);
+        int slot = registry.put("alias", vector(1));
+        assertEquals(slot, registry.put("alias", vector(5)));
+        assertEquals(1, registry.size());
+        assertEquals(5.0f, registry.newView().moveTo(slot).get(0), 0.0f);
+    }
+
+    @Test
+    public void removedSlotsAreReused() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 4);
+        for (int i = 0; i < 6; i++) {
+            registry.put("alias" + i, vector(i));
+        }
+        int freed = registry.slotOf("alias2");
+        assertTrue(registry.remove("alias2"));
+        assertFalse(registry.remove("alias2"));
+        assertFalse(registry.isLive(freed));
+        assertEquals(-1, registry.slotOf("alias2"));
+        assertEquals(5, registry.size());
+
+        assertEquals(freed, registry.put("newAlias", vector(9)));
+        assertEquals(6, registry.getHighWater());
+        assertEquals("newAlias", registry.getId(freed));
+        assertEquals(freed, registry.slotOf("newAlias"));
+        assertEquals(3, registry.slotOf("alias3"));
+    }
+
+    @Test
+    public void removedAliasesStayGoneAfterRehash() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 8);
+        for (int i = 0; i < 100; i++) {
+            registry.put("alias" + i, vector(i));
+        }
+        for (int i = 0; i < 100; i += 2) {
+            registry.remove("alias" + i);
+        }
+        for (int i = 100; i < 200; i++) {
+            registry.put("alias" + i, vector(i));
+        }
+        assertEquals(150, registry.size());
+        for (int i = 0; i < 200; i++) {
+            int slot = registry.slotOf("alias" + i);
+            if (i < 100 && i % 2 == 0) {
+                assertEquals(-1, slot);
+            } else {
+                assertEquals("alias" + i, registry.getId(slot));
+                assertEquals(i, registry.newView().moveTo(slot).get(0), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void getIdOfFreedSlotFails() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 4);
+        int slot = registry.put("alias", vector(1));
+        registry.remove("alias");
+        try {
+            registry.getId(slot);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("freed"));
+        }
+        try {
+            registry.newView().moveTo(slot).getId();
+            fail();
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("freed"));
+        }
+    }
+
+    @Test
+    public void clearDropsSlabsAndAliases() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 4);
+        for (int i = 0; i < 10; i++) {
+            registry.put("alias" + i, vector(i));
+        }
+        assertEquals(3L * 4 * (2 + OffHeapAliasRegistry.MAX_ID_BYTES + 3 * 4), registry.getAllocatedBytes());
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getHighWater());
+        assertEquals(0L, registry.getAllocatedBytes());
+        assertEquals(-1, registry.slotOf("alias3"));
+        assertEquals(0, registry.put("alias3", vector(3)));
+        assertEquals("alias3", registry.getId(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getIdOfUnallocatedSlotFails() {
+        new OffHeapAliasRegistry(3, 4).getId(0);
+    }
+}
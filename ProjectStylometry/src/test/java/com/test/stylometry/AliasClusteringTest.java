@@ -0,0 +1,123 @@
+package com.test.stylometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+
+/**
+ *
+ * @author ITE
+ */
+public class AliasClusteringTest {
+
+    // Plain sequential union-find giving the smallest index as root
+    private static int sequentialFind(int[] parents, int a) {
+        while (parents[a] != a) {
+            a = parents[a];
+        }
+        return a;
+    }
+
+    @Test
+    public void concurrentUnionsGiveSameComponentsAsSequential() throws Exception {
+        final int n = 20000;
+        final int m = 30000;
+        Random random = new Random(7);
+        final int[] from = new int[m];
+        final int[] to = new int[m];
+        int[] expected = new int[n];
+        for (int a = 0; a < n; a++) {
+            expected[a] = a;
+        }
+        for (int e = 0; e < m; e++) {
+            from[e] = random.nextInt(n);
+            to[e] = random.nextInt(n);
+            int root1 = sequentialFind(expected, from[e]);
+            int root2 = sequentialFind(expected, to[e]);
+            expected[Math.max(root1, root2)] = Math.min(root1, root2);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            final AtomicIntegerArray parents = new AtomicIntegerArray(n);
+            for (int a = 0; a < n; a++) {
+                parents.set(a, a);
+            }
+            final int nrOfThreads = 8;
+            final CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(nrOfThreads);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < nrOfThreads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        start.await();
+                        // Interleave the edges so that threads race on the same components
+                        for (int e = thread; e < m; e += nrOfThreads) {
+                            AliasClustering.union(parents, from[e], to[e]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            for (int a = 0; a < n; a++) {
+                assertEquals(sequentialFind(expected, a), AliasClustering.find(parents, a));
+            }
+        }
+    }
+
+    @Test
+    public void runFindsPlantedClusters() {
+        int nrOfGroups = 40;
+        int groupSize = 3;
+        int nrOfFeatures = 60;
+        Random random = new Random(3);
+        float[][] vectors = new float[nrOfGroups * groupSize][nrOfFeatures];
+        for (int g = 0; g < nrOfGroups; g++) {
+            float[] center = new float[nrOfFeatures];
+            for (int i = 0; i < nrOfFeatures; i++) {
+                center[i] = (float) random.nextGaussian();
+            }
+            for (int member = 0; member < groupSize; member++) {
+                for (int i = 0; i < nrOfFeatures; i++) {
+                    vectors[g * groupSize + member][i] = center[i] + 0.05f * (float) random.nextGaussian();
+                }
+            }
+        }
+        AliasClustering clustering = new AliasClustering(16, 8, 5, 0.9f);
+        clustering.setNrOfThreads(4);
+        List<AliasClustering.Cluster> clusters = clustering.run(vectors);
+
+        assertEquals(nrOfGroups, clusters.size());
+        for (AliasClustering.Cluster cluster : clusters) {
+            int[] members = cluster.getMembers();
+            assertEquals(groupSize, members.length);
+            for (int member : members) {
+                assertEquals(members[0] / groupSize, member / groupSize);
+            }
+            assertTrue(cluster.getCohesion() >= 0.9);
+        }
+        // Far fewer comparisons than all pairs
+        long allPairs = (long) vectors.length * (vectors.length - 1) / 2;
+        assertTrue(clustering.getNrOfComparisons() < allPairs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroThreads() {
+        new AliasClustering(4, 8, 5, 0.5f).setNrOfThreads(0);
+    }
+}
@@ -0,0 +1,117 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.ArchiveReader;
+import com.test.IOHandler.FeatureMatrixFile;
+import com.test.IOHandler.IOProperties;
+import com.test.model.Alias;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author ITE
+ */
+public class AliasFeatureAccumulatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final StylometricAnalysisMain stylo = new StylometricAnalysisMain();
+
+    /**
+     * A tar archive with one regular file entry
+     */
+    private static byte[] tar(String name, String content) throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[512];
+        System.arraycopy(name.getBytes(StandardCharsets.US_ASCII), 0, header, 0, name.length());
+        byte[] size = String.format("%011o", data.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = '0';
+        System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header);
+        out.write(data);
+        out.write(new byte[(512 - data.length % 512) % 512 + 1024]);
+        return out.toByteArray();
+    }
+
+    private static String userFile(String... posts) {
+        StringBuilder builder = new StringBuilder();
+        for (String post : posts) {
+            builder.append(post).append(IOProperties.DATA_SEPERATOR).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void blankPostsAreSkipped() throws IOException {
+        AliasFeatureAccumulator accumulator = new AliasFeatureAccumulator(stylo);
+        ArchiveReader reader = new ArchiveReader();
+        reader.read(new ByteArrayInputStream(tar("a.txt",
+                userFile("10:00:00 det var en gang", "11:00:00 ", "12:00:00    ", "13:00:00 och sedan"))), accumulator);
+        String jsonl = "{\"alias\": \"b\", \"time\": \"2014-03-01T13:45:00\", \"post\": \"hej hopp\"}\n"
+                + "{\"alias\": \"b\", \"time\": \"2014-03-01T14:45:00\", \"post\": \"  \"}\n";
+        reader.read(new ByteArrayInputStream(jsonl.getBytes(StandardCharsets.UTF_8)), accumulator);
+
+        List<Alias> aliases = accumulator.getAliases();
+        assertEquals(2, aliases.size());
+        assertEquals(2, aliases.get(0).getNrOfPosts());
+        assertEquals(2, aliases.get(0).getNrOfTimedPosts());
+        assertEquals(1, aliases.get(1).getNrOfPosts());
+        for (float feature : aliases.get(0).getFeatureArray()) {
+            assertFalse(Float.isNaN(feature));
+        }
+    }
+
+    @Test
+    public void undefinedFeaturesDoNotSpreadToOtherAliases() throws IOException {
+        AliasFeatureAccumulator accumulator = new AliasFeatureAccumulator(stylo);
+        // An empty post has no character frequencies
+        accumulator.handlePost("a", "10:00:00", "");
+        accumulator.handlePost("a", "10:30:00", "det var en gang");
+        accumulator.handlePost("b", "11:00:00", "och sedan vidare");
+        accumulator.handlePost("c", "12:00:00", "");
+
+        float[] expected = stylo.extractPostFeatures("det var en gang");
+        float[] a = accumulator.getAliases().get(0).getFeatureArray();
+        int offset = stylo.getCharacterFeatureOffset();
+        for (int i = offset; i < stylo.getCharacterFeatureEnd(); i++) {
+            assertEquals(expected[i], a[i], 1e-6f);
+        }
+        assertTrue(Float.isNaN(accumulator.getAliases().get(2).getFeatureArray()[offset]));
+
+        File file = folder.newFile("features.bin");
+        accumulator.writeFeatureMatrix(file);
+        float[][] vectors = FeatureMatrixFile.read(file).getVectors();
+        for (float[] vector : vectors) {
+            for (float feature : vector) {
+                assertFalse(Float.isNaN(feature));
+            }
+        }
+        // Standardized over a and b only, and c sits at the mean
+        assertEquals(-vectors[0][offset], vectors[1][offset], 1e-5f);
+        assertEquals(0.0f, vectors[2][offset], 0.0f);
+    }
+
+    @Test
+    public void fitLeavesOutMissingValues() {
+        NormalizationModel model = NormalizationModel.fit(new float[][]{{1, Float.NaN}, {3, 2}, {Float.NaN, 4}});
+        assertEquals(2.0, model.getAvg(0), 1e-9);
+        assertEquals(1.0, model.getStd(0), 1e-9);
+        assertEquals(3.0, model.getAvg(1), 1e-9);
+        assertEquals(1.0, model.getStd(1), 1e-9);
+        assertEquals(0.0f, model.apply(new float[]{Float.NaN, 5})[0], 0.0f);
+        assertEquals(2.0f, model.apply(new float[]{Float.NaN, 5})[1], 0.0f);
+    }
+}
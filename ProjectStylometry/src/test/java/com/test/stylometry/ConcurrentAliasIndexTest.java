@@ -0,0 +1,153 @@
+package com.test.stylometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+/**
+ *
+ * @author ITE
+ */
+public class ConcurrentAliasIndexTest {
+
+    private static final int NR_OF_FEATURES = 8;
+    private static final int BATCH_SIZE = 5;
+    private static final int NR_OF_BATCHES = 200;
+
+    private static float[][] randomVectors(Random random, int n) {
+        float[][] vectors = new float[n][NR_OF_FEATURES];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < NR_OF_FEATURES; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    @Test
+    public void readersSeeConsistentSnapshotsWhileWriting() throws Exception {
+        final ConcurrentAliasIndex index = new ConcurrentAliasIndex(NR_OF_FEATURES);
+        final float[][] vectors = randomVectors(new Random(1), BATCH_SIZE * NR_OF_BATCHES);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            final Random random = new Random(100 + r);
+            readers.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    long lastVersion = 0;
+                    int nrOfQueries = 0;
+                    while (writing.get() || nrOfQueries == 0) {
+                        ConcurrentAliasIndex.Snapshot snapshot = index.snapshot();
+                        long version = snapshot.getVersion();
+                        assertTrue(version >= lastVersion);
+                        lastVersion = version;
+                        // Each published version adds exactly one batch
+                        assertEquals(version * BATCH_SIZE, snapshot.size());
+                        if (snapshot.size() == 0) {
+                            continue;
+                        }
+                        // An alias in the snapshot must be its own best match
+                        int alias = random.nextInt(snapshot.size());
+                        ConcurrentAliasIndex.Matches matches = snapshot.findBestMatches(vectors[alias], 3);
+                        assertEquals(version, matches.getVersion());
+                        assertEquals("alias" + alias, matches.getIds()[0]);
+                        assertEquals(1.0f, matches.getSimilarities()[0], 1e-4f);
+                        for (float similarity : matches.getSimilarities()) {
+                            assertFalse(Float.isNaN(similarity));
+                        }
+                        nrOfQueries++;
+                    }
+                    return nrOfQueries;
+                }
+            }));
+        }
+        Future<?> writer = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    for (int b = 0; b < NR_OF_BATCHES; b++) {
+                        String[] ids = new String[BATCH_SIZE];
+                        float[][] batch = new float[BATCH_SIZE][];
+                        for (int i = 0; i < BATCH_SIZE; i++) {
+                            ids[i] = "alias" + (b * BATCH_SIZE + i);
+                            batch[i] = vectors[b * BATCH_SIZE + i];
+                        }
+                        assertEquals(b + 1, index.add(ids, batch));
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                return null;
+            }
+        });
+        writer.get();
+        for (Future<Integer> reader : readers) {
+            assertTrue(reader.get() > 0);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        ConcurrentAliasIndex.Snapshot last = index.snapshot();
+        assertEquals(NR_OF_BATCHES, last.getVersion());
+        assertEquals(BATCH_SIZE * NR_OF_BATCHES, last.size());
+        for (int a = 0; a < last.size(); a++) {
+            assertEquals("alias" + a, last.getId(a));
+        }
+    }
+
+    @Test
+    public void nanFeaturesDoNotSpoilNormalization() {
+        ConcurrentAliasIndex index = new ConcurrentAliasIndex(NR_OF_FEATURES);
+        float[][] vectors = randomVectors(new Random(2), 20);
+        vectors[3][0] = Float.NaN;
+        String[] ids = new String[vectors.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "alias" + i;
+        }
+        index.add(ids, vectors);
+        NormalizationModel model = index.snapshot().getNormalizationModel();
+        for (int i = 0; i < NR_OF_FEATURES; i++) {
+            assertFalse(Double.isNaN(model.getAvg(i)));
+            assertFalse(Double.isNaN(model.getStd(i)));
+        }
+        ConcurrentAliasIndex.Matches matches = index.findBestMatches(vectors[7], 20);
+        assertEquals("alias7", matches.getIds()[0]);
+        for (float similarity : matches.getSimilarities()) {
+            assertFalse(Float.isNaN(similarity));
+        }
+    }
+
+    @Test
+    public void rejectedBatchChangesNothing() {
+        ConcurrentAliasIndex index = new ConcurrentAliasIndex(2);
+        for (float[][] batch : new float[][][]{{{100, 100}, {1}}, {{100, 100}}}) {
+            try {
+                index.add(new String[]{"a", "b"}, batch);
+                fail("Added a malformed batch");
+            } catch (IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+        assertEquals(0, index.snapshot().getVersion());
+        assertEquals(0, index.snapshot().size());
+
+        index.add(new String[]{"c", "d"}, new float[][]{{0, 0}, {2, 2}});
+        NormalizationModel model = index.snapshot().getNormalizationModel();
+        assertEquals(1.0, model.getAvg(0), 1e-9);
+        assertEquals(1.0, model.getStd(0), 1e-9);
+        assertEquals(1, index.snapshot().getVersion());
+    }
+}
@@ -0,0 +1,172 @@
+package com.test.stylometry;
+
+import com.test.IOHandler.FeatureMatrixFile;
+import com.test.IOHandler.IOProperties;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author ITE
+ */
+public class ShardedAllPairsJobTest {
+
+    private static final String[] WORDS = {"och", "att", "det", "som", "en", "om", "men", "av", "till", "med",
+        "hund", "katt", "bil", "hus", "springa", "snabbare", "igen", "tidigt", "nog", "kvar"};
+    private static final int NR_OF_ALIASES = 10;
+    private static final int K = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File aliasDir;
+    private File workDir;
+
+    @Before
+    public void writeUserFiles() throws IOException {
+        aliasDir = folder.newFolder("users");
+        workDir = new File(folder.getRoot(), "work");
+        Random random = new Random(42);
+        for (int i = 0; i < NR_OF_ALIASES; i++) {
+            try (FileWriter writer = new FileWriter(new File(aliasDir, "user" + i + IOProperties.USER_FILE_EXTENSION))) {
+                for (int p = 0; p < 5; p++) {
+                    writer.write(String.format("%02d:%02d:00 ", random.nextInt(24), random.nextInt(60)));
+                    for (int w = 0; w < 5 + random.nextInt(10); w++) {
+                        writer.write(WORDS[random.nextInt(i % 2 == 0 ? 10 : WORDS.length)] + " ");
+                    }
+                    writer.write("." + IOProperties.DATA_SEPERATOR + "\n");
+                }
+            }
+        }
+        // A user without any timed posts is left out
+        try (FileWriter writer = new FileWriter(new File(aliasDir, "silent" + IOProperties.USER_FILE_EXTENSION))) {
+            writer.write("no time stamp" + IOProperties.DATA_SEPERATOR + "\n");
+        }
+    }
+
+    /**
+     * The top-k lists computed by comparing every pair of rows directly
+     */
+    private List<String> bruteForce() throws IOException {
+        FeatureMatrixFile matrix = FeatureMatrixFile.read(new File(workDir, "features.bin"));
+        float[][] vectors = matrix.getVectors();
+        String[] ids = matrix.getIds();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < vectors.length; i++) {
+            TopKHeap heap = new TopKHeap(K);
+            for (int j = 0; j < vectors.length; j++) {
+                if (i != j) {
+                    heap.offer(j, (float) StylometricAnalysisMain.calculateSimilarity(vectors[i], vectors[j], 0, vectors[i].length));
+                }
+            }
+            int[] matches = new int[K];
+            float[] scores = new float[K];
+            int count = heap.drainDescending(matches, scores);
+            for (int c = 0; c < count; c++) {
+                lines.add(ids[i] + "\t" + ids[matches[c]] + "\t" + scores[c]);
+            }
+        }
+        return lines;
+    }
+
+    private List<String> mergedLines(ShardedAllPairsJob job) throws IOException {
+        File output = new File(folder.getRoot(), "topk.tsv");
+        job.merge(output);
+        return Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void prepareStoresOnlyAliasesWithPosts() throws IOException {
+        new ShardedAllPairsJob(workDir).prepare(aliasDir.getPath(), 3, K);
+        FeatureMatrixFile matrix = FeatureMatrixFile.read(new File(workDir, "features.bin"));
+        assertEquals(NR_OF_ALIASES, matrix.getIds().length);
+        assertFalse(Arrays.asList(matrix.getIds()).contains("silent"));
+        assertEquals(new StylometricAnalysisMain().getNrOfFeatures(), matrix.getVectors()[0].length);
+    }
+
+    @Test
+    public void readerReturnsRequestedRows() throws IOException {
+        new ShardedAllPairsJob(workDir).prepare(aliasDir.getPath(), 3, K);
+        File featureFile = new File(workDir, "features.bin");
+        float[][] all = FeatureMatrixFile.read(featureFile).getVectors();
+        try (FeatureMatrixFile.Reader reader = new FeatureMatrixFile.Reader(featureFile)) {
+            float[][] rows = reader.readRows(3, 7);
+            assertEquals(4, rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                assertArrayEquals(all[3 + i], rows[i], 0.0f);
+            }
+            assertEquals(0, reader.readRows(5, 5).length);
+        }
+    }
+
+    @Test
+    public void shardedResultMatchesBruteForce() throws IOException {
+        ShardedAllPairsJob job = new ShardedAllPairsJob(workDir);
+        job.prepare(aliasDir.getPath(), 3, K);
+        job.work();
+        assertEquals(0, job.releaseFailedBlocks());
+        assertEquals(bruteForce(), mergedLines(job));
+    }
+
+    @Test
+    public void lockOfFailedWorkerIsReleased() throws IOException {
+        ShardedAllPairsJob job = new ShardedAllPairsJob(workDir);
+        job.prepare(aliasDir.getPath(), 3, K);
+        // A worker claimed the pair and died before writing the result
+        File lock = new File(workDir, "block-0-2.lock");
+        assertTrue(lock.createNewFile());
+        job.work();
+        assertFalse(new File(workDir, "block-0-2.result").exists());
+        try {
+            job.merge(new File(folder.getRoot(), "topk.tsv"));
+            fail("Merged with a missing block pair");
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        assertEquals(1, job.releaseFailedBlocks());
+        assertFalse(lock.exists());
+        job.work();
+        assertEquals(0, job.releaseFailedBlocks());
+        assertEquals(bruteForce(), mergedLines(job));
+    }
+
+    @Test
+    public void restartOnlyComputesMissingBlockPairs() throws IOException {
+        ShardedAllPairsJob job = new ShardedAllPairsJob(workDir);
+        job.prepare(aliasDir.getPath(), 3, K);
+        job.work();
+        File featureFile = new File(workDir, "features.bin");
+        long featuresModified = featureFile.lastModified();
+        File kept = new File(workDir, "block-0-1.result");
+        byte[] keptContent = Files.readAllBytes(kept.toPath());
+        assertTrue(kept.setLastModified(1000L));
+        assertTrue(new File(workDir, "block-1-2.result").delete());
+
+        ShardedAllPairsJob restarted = new ShardedAllPairsJob(workDir);
+        restarted.prepare(aliasDir.getPath(), 3, K);
+        assertEquals(featuresModified, featureFile.lastModified());
+        assertEquals(1, restarted.releaseFailedBlocks());
+        restarted.work();
+        assertTrue(new File(workDir, "block-1-2.result").exists());
+        assertEquals(1000L, kept.lastModified());
+        assertArrayEquals(keptContent, Files.readAllBytes(kept.toPath()));
+        assertEquals(bruteForce(), mergedLines(restarted));
+    }
+}
@@ -0,0 +1,170 @@
+package com.test.stylometry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author ITE
+ */
+public class StreamingAllPairsTest {
+
+    private static final int NR_OF_ALIASES = 30;
+    private static final int NR_OF_FEATURES = 8;
+    private static final int K = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String[] ids = new String[NR_OF_ALIASES];
+    private final float[][] vectors = new float[NR_OF_ALIASES][NR_OF_FEATURES];
+
+    public StreamingAllPairsTest() {
+        Random random = new Random(7);
+        for (int i = 0; i < NR_OF_ALIASES; i++) {
+            ids[i] = "alias" + i;
+            for (int j = 0; j < NR_OF_FEATURES; j++) {
+                vectors[i][j] = (float) random.nextGaussian();
+            }
+        }
+    }
+
+    private float similarity(int i, int j) {
+        return (float) StylometricAnalysisMain.calculateSimilarity(vectors[i], vectors[j], 0, NR_OF_FEATURES);
+    }
+
+    /**
+     * An edge list read back from a binary file
+     */
+    private static class EdgeList {
+
+        String[] ids;
+        List<String> edges = new ArrayList<>();
+        List<Float> sims = new ArrayList<>();
+    }
+
+    private static EdgeList readEdgeList(File file) throws IOException {
+        EdgeList list = new EdgeList();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            assertEquals(StreamingAllPairs.EDGE_LIST_MAGIC, in.readInt());
+            list.ids = new String[in.readInt()];
+            for (int i = 0; i < list.ids.length; i++) {
+                list.ids[i] = in.readUTF();
+            }
+            long nrOfEdges = in.readLong();
+            for (long e = 0; e < nrOfEdges; e++) {
+                int alias1 = in.readInt();
+                int alias2 = in.readInt();
+                float sim = in.readFloat();
+                list.edges.add(alias1 + " " + alias2 + " " + sim);
+                list.sims.add(sim);
+            }
+            assertEquals("Trailing data in " + file, -1, in.read());
+        }
+        return list;
+    }
+
+    private static void assertDescending(List<Float> sims) {
+        for (int i = 1; i < sims.size(); i++) {
+            assertTrue(sims.get(i - 1) >= sims.get(i));
+        }
+    }
+
+    private File run(String name, float threshold, int spillSize) throws IOException {
+        File workDir = new File(folder.getRoot(), name);
+        StreamingAllPairs allPairs = new StreamingAllPairs(workDir, K, threshold, spillSize);
+        allPairs.setWriteCsv(true);
+        allPairs.run(ids, vectors);
+        return workDir;
+    }
+
+    @Test
+    public void spillingEveryEdgeGivesTheSameEdges() throws IOException {
+        // 435 edges in runs of one edge need two merge passes
+        File inMemory = run("memory", -1.0f, 1 << 16);
+        File spilled = run("spilled", -1.0f, 1);
+
+        EdgeList expected = readEdgeList(new File(inMemory, "edges.bin"));
+        EdgeList actual = readEdgeList(new File(spilled, "edges.bin"));
+        assertEquals(NR_OF_ALIASES * (NR_OF_ALIASES - 1) / 2, actual.edges.size());
+        assertDescending(actual.sims);
+        Collections.sort(expected.edges);
+        Collections.sort(actual.edges);
+        assertEquals(expected.edges, actual.edges);
+        assertEquals(readEdgeList(new File(inMemory, "topk.bin")).edges, readEdgeList(new File(spilled, "topk.bin")).edges);
+
+        for (File file : spilled.listFiles()) {
+            assertTrue("Spill file left behind: " + file, !file.getName().endsWith(".spill"));
+        }
+    }
+
+    @Test
+    public void edgeListHoldsEdgesAboveThreshold() throws IOException {
+        float threshold = 0.2f;
+        File workDir = run("threshold", threshold, 16);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < NR_OF_ALIASES; i++) {
+            for (int j = i + 1; j < NR_OF_ALIASES; j++) {
+                float sim = similarity(i, j);
+                if (sim >= threshold) {
+                    expected.add(i + " " + j + " " + sim);
+                }
+            }
+        }
+        EdgeList edges = readEdgeList(new File(workDir, "edges.bin"));
+        assertArrayEquals(ids, edges.ids);
+        assertDescending(edges.sims);
+        List<String> actual = new ArrayList<>(edges.edges);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+
+        List<String> csv = Files.readAllLines(new File(workDir, "edges.csv").toPath(), StandardCharsets.UTF_8);
+        assertEquals(edges.edges.size(), csv.size());
+        String[] first = edges.edges.get(0).split(" ");
+        assertEquals(ids[Integer.parseInt(first[0])] + "," + ids[Integer.parseInt(first[1])] + "," + first[2], csv.get(0));
+    }
+
+    @Test
+    public void topKHoldsBestMatchesOfEachAlias() throws IOException {
+        File workDir = run("topk", 1.0f, 16);
+        EdgeList topK = readEdgeList(new File(workDir, "topk.bin"));
+        assertArrayEquals(ids, topK.ids);
+        assertEquals(NR_OF_ALIASES * K, topK.edges.size());
+        for (int i = 0; i < NR_OF_ALIASES; i++) {
+            List<Float> expected = new ArrayList<>();
+            for (int j = 0; j < NR_OF_ALIASES; j++) {
+                if (j != i) {
+                    expected.add(similarity(i, j));
+                }
+            }
+            Collections.sort(expected, Collections.reverseOrder());
+            List<Float> actual = topK.sims.subList(i * K, (i + 1) * K);
+            assertEquals(expected.subList(0, K), actual);
+            for (int m = 0; m < K; m++) {
+                assertTrue(topK.edges.get(i * K + m).startsWith(i + " "));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spillSizeMustBePositive() {
+        new StreamingAllPairs(folder.getRoot(), K, 0.0f, 0);
+    }
+}
@@ -0,0 +1,154 @@
+package com.test.stylometry;
+
+import com.test.model.Alias;
+import com.test.model.OffHeapAliasRegistry;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author ITE
+ */
+public class StylometricAnalysisMainTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Alias alias(String id, String... posts) {
+        Alias alias = new Alias();
+        alias.setUserID(id);
+        alias.setPosts(new ArrayList<>(Arrays.asList(posts)));
+        return alias;
+    }
+
+    private static List<Alias> aliases() {
+        List<Alias> aliases = new ArrayList<>();
+        aliases.add(alias("a", "the cat sat on the mat, 12 times!", "and then it left"));
+        aliases.add(alias("b", "Hur mycket kostar det? Inte mycket."));
+        aliases.add(alias("c", "w0rd w0rd w0rd... of the day"));
+        return aliases;
+    }
+
+    /**
+     * A lexicon with more function words than the default 456 features
+     */
+    private File largeLexicon() throws IOException {
+        File file = folder.newFile("functionWords500.txt");
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("the\nand\nof\n");
+            for (int i = 0; i < 497; i++) {
+                writer.write("word" + i + "\n");
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void featureVectorsFollowTheLexiconSize() throws IOException {
+        StylometricAnalysisMain stylo = new StylometricAnalysisMain(largeLexicon().getPath());
+        assertEquals(500 + 70, stylo.getNrOfFeatures());
+        List<Alias> aliases = aliases();
+        stylo.setAliases(aliases);
+        stylo.createFeatureVectors();
+        for (Alias alias : aliases) {
+            assertEquals(stylo.getNrOfFeatures(), alias.getFeatureVector().size());
+        }
+        assertEquals(stylo.getNrOfFeatures(), stylo.createFeatureVectors(alias("d", "the end")).size());
+    }
+
+    private static float[] toArray(List<Float> values) {
+        float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    @Test
+    public void singleAliasVectorsMatchExtractFeatures() {
+        StylometricAnalysisMain stylo = new StylometricAnalysisMain();
+        Alias alias = aliases().get(0);
+        float[] expected = stylo.extractFeatures(alias.getPosts());
+        assertArrayEquals(expected, toArray(stylo.createFeatureVectors(alias)), 1e-6f);
+        assertArrayEquals(expected, toArray(stylo.executePostAnalysis(alias.getPosts())), 1e-6f);
+
+        String post = "Vad kostar det? 100 kr, sa han!";
+        assertArrayEquals(stylo.extractPostFeatures(post), toArray(stylo.executeTxtStylo(post)), 0.0f);
+        assertArrayEquals(stylo.extractPostFeatures(post), toArray(stylo.createFeatureVectors(alias("q", post))), 1e-6f);
+    }
+
+    @Test
+    public void findBestMatchInRegistrySkipsFreedSlots() {
+        OffHeapAliasRegistry registry = new OffHeapAliasRegistry(3, 4);
+        int a = registry.put("a", new float[]{1, 0, 0});
+        int b = registry.put("b", new float[]{0.9f, 0.1f, 0});
+        int c = registry.put("c", new float[]{0, 1, 0});
+        assertEquals(b, StylometricAnalysisMain.findBestMatch(registry, a));
+        registry.remove("b");
+        assertEquals(c, StylometricAnalysisMain.findBestMatch(registry, a));
+        for (int slot : new int[]{b, 7, -1}) {
+            try {
+                StylometricAnalysisMain.findBestMatch(registry, slot);
+                fail("Searched from slot " + slot);
+            } catch (IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void trackStyleDriftAcceptsTimestamps() {
+        StylometricAnalysisMain stylo = new StylometricAnalysisMain();
+        String[] times = {"09:00:00", "09:30:00", "11:00:00", "11:10:00", "13:00:00"};
+        Alias withStrings = alias("a", "hej hej", "och sedan vidare", "det var bra", "", "inte alls");
+        withStrings.setPostTime(Arrays.asList(times));
+        Alias withTimestamps = alias("a", "hej hej", "och sedan vidare", "det var bra", "", "inte alls");
+        List<Timestamp> timestamps = new ArrayList<>();
+        for (String time : times) {
+            timestamps.add(Timestamp.valueOf("2015-03-02 " + time));
+        }
+        withTimestamps.setPostTime(timestamps);
+
+        List<Double> expected = stylo.trackStyleDrift(withStrings, new WindowedProfile(stylo.getNrOfFeatures(), 0, 3600));
+        List<Double> actual = stylo.trackStyleDrift(withTimestamps, new WindowedProfile(stylo.getNrOfFeatures(), 0, 3600));
+        assertEquals(times.length, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void createFeatureVectorsMatchesExtractFeatures() throws IOException {
+        for (String lexicon : new String[]{null, largeLexicon().getPath()}) {
+            StylometricAnalysisMain stylo = new StylometricAnalysisMain(lexicon);
+            List<Alias> aliases = aliases();
+            float[][] raw = new float[aliases.size()][];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = stylo.extractFeatures(aliases.get(i).getPosts());
+            }
+            NormalizationModel model = NormalizationModel.fit(raw);
+
+            stylo.setAliases(aliases);
+            stylo.createFeatureVectors();
+            for (int i = 0; i < raw.length; i++) {
+                assertArrayEquals(model.apply(raw[i]), aliases.get(i).getFeatureArray(), 1e-5f);
+            }
+
+            List<Alias> others = aliases();
+            stylo.setAliases(others);
+            stylo.createFeatureVectors(others);
+            for (int i = 0; i < raw.length; i++) {
+                assertArrayEquals(model.apply(raw[i]), others.get(i).getFeatureArray(), 1e-5f);
+            }
+        }
+    }
+}